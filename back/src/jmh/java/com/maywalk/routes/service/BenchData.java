@@ -0,0 +1,108 @@
+package com.maywalk.routes.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+import com.maywalk.routes.model.RouteStatus;
+import com.maywalk.routes.model.SurfaceType;
+import com.maywalk.routes.store.InMemoryRouteStore;
+
+/**
+ * Deterministic synthetic datasets for the benchmarks: GPS-like walks sampled
+ * every ~1.5 m around Yekaterinburg, the area the demo data uses.
+ */
+final class BenchData {
+    static final double ORIGIN_LAT = 56.84;
+    static final double ORIGIN_LNG = 60.60;
+    /** Routes are spread over a ~30 km square, each walk stays inside ~4 km. */
+    static final double AREA_DEGREES = 0.3;
+    private static final double WALK_DEGREES = 0.04;
+    private static final double STEP_DEGREES = 0.0000135; // ~1.5 m
+
+    private BenchData() {
+    }
+
+    /**
+     * Random walk with a slowly drifting heading that bounces off the edges of
+     * its box, so long tracks look like a day of wandering rather than noise.
+     */
+    static PackedGeometry track(Random random, double lat, double lng, int points) {
+        PackedGeometry track = new PackedGeometry(points);
+        double minLat = lat - WALK_DEGREES / 2;
+        double minLng = lng - WALK_DEGREES / 2;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        double lngScale = 1 / Math.cos(Math.toRadians(lat));
+        for (int i = 0; i < points; i++) {
+            track.append(lat, lng, i == 0 || i == points - 1);
+            heading += random.nextGaussian() * 0.15;
+            lat += Math.sin(heading) * STEP_DEGREES;
+            lng += Math.cos(heading) * STEP_DEGREES * lngScale;
+            if (lat < minLat || lat > minLat + WALK_DEGREES) {
+                heading = -heading;
+                lat = Math.max(minLat, Math.min(minLat + WALK_DEGREES, lat));
+            }
+            if (lng < minLng || lng > minLng + WALK_DEGREES) {
+                heading = Math.PI - heading;
+                lng = Math.max(minLng, Math.min(minLng + WALK_DEGREES, lng));
+            }
+        }
+        return track;
+    }
+
+    static Route route(Random random, RouteStatus status, int segments, int pointsPerSegment) {
+        double lat = ORIGIN_LAT + random.nextDouble() * AREA_DEGREES;
+        double lng = ORIGIN_LNG + random.nextDouble() * AREA_DEGREES;
+        List<RouteSegment> list = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            PackedGeometry track = track(random, lat, lng, pointsPerSegment);
+            RouteSegment segment = new RouteSegment();
+            segment.setName("Участок " + (i + 1));
+            segment.setSurfaceType(SurfaceType.UNKNOWN);
+            segment.setPreliminary(status == RouteStatus.PRELIMINARY);
+            segment.setPoints(track);
+            list.add(segment);
+            lat = track.lat(track.size() - 1);
+            lng = track.lng(track.size() - 1);
+        }
+        return new Route("Маршрут", status, list);
+    }
+
+    static RouteService service(SurfaceSource source) {
+        // A zero-entry cache forces every FINAL evaluation down the classification path
+        SurfaceCache cache = new SurfaceCache(0, Duration.ofDays(7), "");
+        return new RouteService(cache, source, new InMemoryRouteStore(), new SimpleMeterRegistry(), 100,
+                DataSize.ofMegabytes(8), Duration.ofSeconds(4), 0, false);
+    }
+
+    static byte[] gpx(Route route) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            RouteExportWriter.writeGpx(route, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] kml(Route route) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            RouteExportWriter.writeKml(route, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
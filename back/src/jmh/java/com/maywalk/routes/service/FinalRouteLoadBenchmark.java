@@ -0,0 +1,138 @@
+package com.maywalk.routes.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maywalk.routes.RoutesApplication;
+
+/**
+ * Load test: 128 clients GET FINAL routes from the whole application, with
+ * Tomcat capped at 32 request threads and every Overpass answer delayed by
+ * {@code latencyMillis}. Surface and tile caches are disabled, so each GET waits
+ * on the upstream like a cold request would. Compare {@code virtualThreads=false}
+ * (blocked platform request threads) with {@code true} (needs a JDK 21 runtime).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@Threads(128)
+public class FinalRouteLoadBenchmark {
+    private static final int ROUTES = 256;
+
+    @Param({"false", "true"})
+    boolean virtualThreads;
+
+    @Param({"250"})
+    int latencyMillis;
+
+    private OverpassStub overpass;
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private final List<URI> routes = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws IOException {
+        if (virtualThreads && !JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+            throw new IllegalStateException("virtualThreads=true needs a JDK 21+ runtime, this is " + JavaVersion.getJavaVersion());
+        }
+        overpass = new OverpassStub(Duration.ofMillis(latencyMillis));
+        // Command-line arguments, so they win over application.properties
+        context = new SpringApplicationBuilder(RoutesApplication.class).run(
+                "--server.port=0",
+                "--server.tomcat.threads.max=32",
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN",
+                "--maywalk.store.type=memory",
+                "--maywalk.surface-cache.max-entries=0",
+                "--maywalk.surface-cache.file=",
+                "--maywalk.overpass.url=" + overpass.url(),
+                "--maywalk.overpass.max-tiles=0",
+                "--maywalk.overpass.max-concurrent=1024");
+        String base = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port") + "/api/routes";
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        // Saving a FINAL route classifies it too, so create them all at once
+        List<CompletableFuture<HttpResponse<String>>> created = new ArrayList<>();
+        for (int i = 0; i < ROUTES; i++) {
+            // One single-segment route per Overpass tile, so concurrent GETs never share a download
+            double lat = 56.5 + (i / 16) * 0.02;
+            double lng = 60.3 + (i % 16) * 0.02;
+            created.add(client.sendAsync(HttpRequest.newBuilder(URI.create(base))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(routeJson(i, lat, lng)))
+                    .build(), HttpResponse.BodyHandlers.ofString()));
+        }
+        ObjectMapper mapper = new ObjectMapper();
+        for (CompletableFuture<HttpResponse<String>> response : created) {
+            JsonNode body = mapper.readTree(response.join().body());
+            routes.add(URI.create(base + "/" + body.path("route").path("id").asText()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        if (overpass != null) {
+            overpass.close();
+        }
+    }
+
+    @Benchmark
+    public int getFinalRoute() throws IOException, InterruptedException {
+        URI uri = routes.get(Math.floorMod(next.getAndIncrement(), ROUTES));
+        HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri).GET().build(),
+                HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("GET " + uri + " answered HTTP " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+
+    private static String routeJson(int index, double lat, double lng) {
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{\"name\":\"Нагрузка ").append(index)
+                .append("\",\"status\":\"FINAL\",\"segments\":[{\"name\":\"Участок\",\"surfaceType\":\"UNKNOWN\",\"points\":[");
+        for (int i = 0; i < 20; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.ROOT, "{\"lat\":%.6f,\"lng\":%.6f}", lat + i * 0.0002, lng + i * 0.0002));
+        }
+        return json.append("]}]}").toString();
+    }
+}
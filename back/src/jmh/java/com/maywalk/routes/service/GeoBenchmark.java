@@ -0,0 +1,131 @@
+package com.maywalk.routes.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.maywalk.routes.model.GeoPoint;
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.SurfaceType;
+import com.maywalk.routes.util.GeoUtils;
+
+/**
+ * Polyline length: the raw haversine and equirectangular kernels, the boxed
+ * {@code List<GeoPoint>} path and the memoized packed path {@link RouteService#distance}
+ * takes for stored segments. {@code wayEdgeNearest} is the per-point lookup surface
+ * classification runs against nearby OSM ways. Setup fails if the fast kernels leave
+ * the error bounds documented in {@link GeoUtils}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoBenchmark {
+    @Param({"10", "1000", "100000"})
+    int points;
+
+    private PackedGeometry packed;
+    private List<GeoPoint> boxed;
+    private RouteService service;
+    private WayEdgeIndex ways;
+    private PackedGeometry probes;
+
+    @Setup
+    public void setUp() {
+        packed = BenchData.track(new Random(42), BenchData.ORIGIN_LAT, BenchData.ORIGIN_LNG, points);
+        boxed = new ArrayList<>(packed);
+        service = BenchData.service((box, deadline) -> null);
+        Random random = new Random(7);
+        List<OsmWay> osmWays = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            osmWays.add(new OsmWay(i, SurfaceType.ASPHALT, BenchData.track(random,
+                    BenchData.ORIGIN_LAT + random.nextDouble() * 0.02, BenchData.ORIGIN_LNG + random.nextDouble() * 0.02, 200)));
+        }
+        ways = new WayEdgeIndex(osmWays);
+        probes = BenchData.track(random, BenchData.ORIGIN_LAT + 0.01, BenchData.ORIGIN_LNG + 0.01, 1000);
+        checkAccuracy(random);
+    }
+
+    /**
+     * Random walk-scale pairs up to 1 km apart between ±70° latitude, against haversine.
+     */
+    private static void checkAccuracy(Random random) {
+        double worstLength = 0;
+        double worstProjected = 0;
+        for (int i = 0; i < 100_000; i++) {
+            double lat = (random.nextDouble() * 2 - 1) * 70;
+            double lng = (random.nextDouble() * 2 - 1) * 180;
+            double meters = 0.1 + random.nextDouble() * 1000;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            double lat2 = lat + Math.sin(heading) * meters / GeoUtils.METERS_PER_DEGREE;
+            double lng2 = lng + Math.cos(heading) * meters / GeoUtils.METERS_PER_DEGREE / Math.cos(Math.toRadians(lat));
+            double exact = GeoUtils.distanceMeters(lat, lng, lat2, lng2);
+            double fast = GeoUtils.fastDistanceMeters(lat, lng, lat2, lng2);
+            double projected = GeoUtils.distanceToSegmentMeters(lat, lng, lat2, lng2, lat2, lng2);
+            worstLength = Math.max(worstLength, Math.abs(fast - exact) / exact);
+            worstProjected = Math.max(worstProjected, Math.abs(projected - exact) / exact);
+        }
+        if (worstLength > 1e-8 || worstProjected > 2e-4) {
+            throw new IllegalStateException("Fast distance kernels out of bounds: length " + worstLength
+                    + ", projected " + worstProjected);
+        }
+    }
+
+    @Benchmark
+    public double haversineKernel() {
+        double meters = 0;
+        for (int i = 1; i < packed.size(); i++) {
+            meters += GeoUtils.distanceMeters(packed.lat(i - 1), packed.lng(i - 1), packed.lat(i), packed.lng(i));
+        }
+        return meters;
+    }
+
+    @Benchmark
+    public double equirectangularKernel() {
+        double meters = 0;
+        for (int i = 1; i < packed.size(); i++) {
+            meters += GeoUtils.fastDistanceMeters(packed.lat(i - 1), packed.lng(i - 1), packed.lat(i), packed.lng(i));
+        }
+        return meters;
+    }
+
+    /**
+     * The classification loop: every track point looks for a closer way than the best so far.
+     */
+    @Benchmark
+    public double wayEdgeNearest() {
+        double best = 60;
+        for (int i = 0; i < probes.size(); i++) {
+            WayEdgeIndex.Match match = ways.nearest(probes.lat(i), probes.lng(i), best);
+            if (match != null) {
+                best = match.distanceMeters;
+            }
+        }
+        return best;
+    }
+
+    @Benchmark
+    public double distanceBoxedList() {
+        return service.distance(boxed);
+    }
+
+    @Benchmark
+    public double distancePackedMemoized() {
+        return service.distance(packed);
+    }
+}
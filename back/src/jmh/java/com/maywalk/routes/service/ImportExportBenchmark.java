@@ -0,0 +1,69 @@
+package com.maywalk.routes.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+import com.maywalk.routes.model.RouteStatus;
+
+/**
+ * GPX/KML parsing from in-memory documents and export to a discarding stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImportExportBenchmark {
+    @Param({"10", "1000", "100000"})
+    int points;
+
+    private Route route;
+    private byte[] gpx;
+    private byte[] kml;
+
+    @Setup
+    public void setUp() {
+        route = BenchData.route(new Random(42), RouteStatus.PRELIMINARY, 1, points);
+        gpx = BenchData.gpx(route);
+        kml = BenchData.kml(route);
+    }
+
+    @Benchmark
+    public List<RouteSegment> readGpx() {
+        return RouteImportReader.readGpx(new ByteArrayInputStream(gpx), "bench", true);
+    }
+
+    @Benchmark
+    public List<RouteSegment> readKml() {
+        return RouteImportReader.readKml(new ByteArrayInputStream(kml), "bench", true);
+    }
+
+    @Benchmark
+    public void writeGpx() throws IOException {
+        RouteExportWriter.writeGpx(route, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void writeKmz() throws IOException {
+        RouteExportWriter.writeKmz(route, OutputStream.nullOutputStream());
+    }
+}
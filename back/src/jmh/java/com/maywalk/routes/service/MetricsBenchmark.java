@@ -0,0 +1,99 @@
+package com.maywalk.routes.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.maywalk.routes.dto.RouteMetrics;
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+import com.maywalk.routes.model.RouteStatus;
+
+/**
+ * {@link RouteService#buildMetrics} for a four-segment route. The cold cases get
+ * freshly copied segments every call so no cached length or surface survives;
+ * FINAL routes are classified against {@link OverpassStub} through the real
+ * {@link OverpassTileStore} (tiles are downloaded once, during warmup).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    @Param({"10", "1000", "100000"})
+    int points;
+
+    private OverpassStub overpass;
+    private RouteService service;
+    private Route template;
+    private Route stored;
+
+    @Setup
+    public void setUp() throws IOException {
+        overpass = new OverpassStub();
+        service = BenchData.service(new OverpassTileStore(overpass.url(), 4096, Duration.ofSeconds(5), 4, 5,
+                Duration.ofSeconds(30), false, new SimpleMeterRegistry()));
+        template = BenchData.route(new Random(42), RouteStatus.FINAL, 4, points / 4 + 1);
+        stored = service.save(BenchData.route(new Random(7), RouteStatus.FINAL, 4, points / 4 + 1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        overpass.close();
+    }
+
+    @State(Scope.Thread)
+    public static class FreshSegments {
+        List<RouteSegment> segments;
+
+        @Setup(Level.Invocation)
+        public void copy(MetricsBenchmark benchmark) {
+            segments = new ArrayList<>();
+            for (RouteSegment source : benchmark.template.getSegments()) {
+                RouteSegment segment = new RouteSegment();
+                segment.setName(source.getName());
+                segment.setPreliminary(source.isPreliminary());
+                // Built point by point so no running length is carried over
+                segment.setPoints(new PackedGeometry(source.getPoints()));
+                segments.add(segment);
+            }
+        }
+    }
+
+    @Benchmark
+    public RouteMetrics preliminaryCold(FreshSegments fresh) {
+        return service.evaluate(fresh.segments, RouteStatus.PRELIMINARY, "bench");
+    }
+
+    @Benchmark
+    public RouteMetrics finalCold(FreshSegments fresh) {
+        return service.evaluate(fresh.segments, RouteStatus.FINAL, "bench");
+    }
+
+    @Benchmark
+    public RouteMetrics storedRouteMemoized() {
+        return service.buildMetrics(stored);
+    }
+}
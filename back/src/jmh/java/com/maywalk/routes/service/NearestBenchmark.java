@@ -0,0 +1,111 @@
+package com.maywalk.routes.service;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.maywalk.routes.dto.NearbyResult;
+import com.maywalk.routes.model.GeoPoint;
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+import com.maywalk.routes.model.RouteStatus;
+
+/**
+ * Snap-to-archive lookups against thousands of stored routes. Targets are
+ * random points in the dataset area, so both hits and misses are measured.
+ * {@code findNearbyEdges} is the k-nearest variant that projects onto track edges.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearestBenchmark {
+    private static final int TARGETS = 1024;
+    private static final int TRACK_ROUTES = 100;
+
+    @Param({"1000", "5000"})
+    int routes;
+
+    @Param({"60", "500"})
+    double thresholdMeters;
+
+    private RouteService service;
+    private GeoPoint[] targets;
+    private int next;
+    private PackedGeometry track;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        service = BenchData.service((box, deadline) -> null);
+        track = new PackedGeometry();
+        for (int i = 0; i < routes; i++) {
+            Route route = service.save(BenchData.route(random, RouteStatus.PRELIMINARY, 2, 100));
+            if (i < TRACK_ROUTES) {
+                // An imported track that follows archived routes a few meters off
+                for (RouteSegment segment : route.getSegments()) {
+                    PackedGeometry points = segment.getGeometry();
+                    for (int p = 0; p < points.size(); p++) {
+                        track.append(points.lat(p) + random.nextGaussian() * 0.00003,
+                                points.lng(p) + random.nextGaussian() * 0.00005, false);
+                    }
+                }
+            }
+        }
+        targets = new GeoPoint[TARGETS];
+        for (int i = 0; i < TARGETS; i++) {
+            targets[i] = new GeoPoint(BenchData.ORIGIN_LAT + random.nextDouble() * BenchData.AREA_DEGREES,
+                    BenchData.ORIGIN_LNG + random.nextDouble() * BenchData.AREA_DEGREES, false);
+        }
+    }
+
+    @Benchmark
+    public NearbyResult findNearest() {
+        GeoPoint target = targets[next++ & (TARGETS - 1)];
+        return service.findNearest(target, thresholdMeters).orElse(null);
+    }
+
+    /**
+     * A 20 000-point track snapped in one call.
+     */
+    @Benchmark
+    public List<NearbyResult> snapTrack() {
+        return service.snap(track, thresholdMeters, null, null, true);
+    }
+
+    /**
+     * The same track snapped the way a client without the batch call would do it.
+     */
+    @Benchmark
+    public int snapTrackPointByPoint() {
+        int snapped = 0;
+        for (int i = 0; i < track.size(); i++) {
+            snapped += service.findNearby(track.get(i), thresholdMeters, 1, null, null, true).size();
+        }
+        return snapped;
+    }
+
+    /**
+     * Five closest routes, projected onto their nearest edge.
+     */
+    @Benchmark
+    public List<NearbyResult> findNearbyEdges() {
+        GeoPoint target = targets[next++ & (TARGETS - 1)];
+        return service.findNearby(target, thresholdMeters, 5, null, null, true);
+    }
+}
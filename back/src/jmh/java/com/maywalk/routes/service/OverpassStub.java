@@ -0,0 +1,119 @@
+package com.maywalk.routes.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Overpass API. For every bbox in a union query it
+ * answers with a small street grid (a few highways of each surface class and
+ * a railway), in the same {@code out tags geom} JSON shape the real server uses.
+ * An optional latency is added to every answer to play a slow upstream.
+ */
+final class OverpassStub implements AutoCloseable {
+    private static final Pattern BBOX = Pattern.compile("\\((-?[\\d.]+),(-?[\\d.]+),(-?[\\d.]+),(-?[\\d.]+)\\)");
+    private static final String[] TAGS = {
+            "{\"highway\":\"residential\",\"surface\":\"asphalt\"}",
+            "{\"highway\":\"footway\"}",
+            "{\"highway\":\"track\"}",
+            "{\"railway\":\"rail\"}",
+    };
+    private static final int LINES_PER_AXIS = 4;
+    private static final int POINTS_PER_LINE = 12;
+
+    private final HttpServer server;
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+    private final long latencyMillis;
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    OverpassStub() throws IOException {
+        this(Duration.ZERO);
+    }
+
+    OverpassStub(Duration latency) throws IOException {
+        latencyMillis = latency.toMillis();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/interpreter", this::handle);
+        // Slow answers must overlap like a real server's, not queue on one dispatcher thread
+        server.setExecutor(workers);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/interpreter";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String query = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        StringBuilder json = new StringBuilder("{\"version\":0.6,\"elements\":[");
+        Matcher matcher = BBOX.matcher(query);
+        String previous = null;
+        boolean first = true;
+        while (matcher.find()) {
+            // Each tile appears twice in a query (railway and highway clauses)
+            if (matcher.group().equals(previous)) {
+                continue;
+            }
+            previous = matcher.group();
+            double south = Double.parseDouble(matcher.group(1));
+            double west = Double.parseDouble(matcher.group(2));
+            double north = Double.parseDouble(matcher.group(3));
+            double east = Double.parseDouble(matcher.group(4));
+            for (int line = 0; line < LINES_PER_AXIS; line++) {
+                double lat = south + (north - south) * (line + 0.5) / LINES_PER_AXIS;
+                double lng = west + (east - west) * (line + 0.5) / LINES_PER_AXIS;
+                first = appendWay(json, first, TAGS[line % TAGS.length], lat, west, lat, east);
+                first = appendWay(json, first, TAGS[(line + 1) % TAGS.length], south, lng, north, lng);
+            }
+        }
+        json.append("]}");
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private boolean appendWay(StringBuilder json, boolean first, String tags,
+                              double fromLat, double fromLng, double toLat, double toLng) {
+        if (!first) {
+            json.append(',');
+        }
+        json.append("{\"type\":\"way\",\"id\":").append(nextId.getAndIncrement()).append(",\"tags\":").append(tags).append(",\"geometry\":[");
+        for (int i = 0; i < POINTS_PER_LINE; i++) {
+            double t = i / (double) (POINTS_PER_LINE - 1);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.ROOT, "{\"lat\":%.7f,\"lon\":%.7f}",
+                    fromLat + (toLat - fromLat) * t, fromLng + (toLng - fromLng) * t));
+        }
+        json.append("]}");
+        return false;
+    }
+}
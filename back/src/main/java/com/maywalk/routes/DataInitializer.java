@@ -19,7 +19,9 @@ public class DataInitializer {
     @Bean
     CommandLineRunner seedRoutes(RouteService routeService) {
         return args -> {
-            routeService.deleteAll();
+            if (!routeService.findAll().isEmpty()) {
+                return;
+            }
             RouteSegment archiveSegment = new RouteSegment(
                     "Маршрут 2023",
                     SurfaceType.FOREST_TRAIL,
@@ -2,6 +2,7 @@ package com.maywalk.routes;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -12,7 +13,8 @@ public class WebConfig {
         return new WebMvcConfigurer() {
             @Override
             public void addCorsMappings(CorsRegistry registry) {
-                registry.addMapping("/**").allowedMethods("*").allowedOrigins("*").allowedHeaders("*");
+                registry.addMapping("/**").allowedMethods("*").allowedOrigins("*").allowedHeaders("*")
+                        .exposedHeaders(HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED);
             }
         };
     }
@@ -0,0 +1,63 @@
+package com.maywalk.routes.controller;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.maywalk.routes.dto.ImportJobStatus;
+import com.maywalk.routes.model.RouteStatus;
+import com.maywalk.routes.service.ImportJobService;
+
+@RestController
+@RequestMapping("/api/routes/import")
+public class ImportController {
+
+    private final ImportJobService importJobService;
+
+    public ImportController(ImportJobService importJobService) {
+        this.importJobService = importJobService;
+    }
+
+    /**
+     * Starts a background import of GPX/KML files and zip archives of them, sent as
+     * {@code files} (or a single {@code file}) parts; poll the returned job for progress.
+     */
+    @PostMapping(value = "/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> bulk(@RequestPart(value = "files", required = false) List<MultipartFile> files,
+                                  @RequestPart(value = "file", required = false) MultipartFile file,
+                                  @RequestParam(value = "status", defaultValue = "PRELIMINARY") RouteStatus status) throws IOException {
+        List<MultipartFile> uploads = new ArrayList<>();
+        if (files != null) {
+            uploads.addAll(files);
+        }
+        if (file != null) {
+            uploads.add(file);
+        }
+        try {
+            ImportJobStatus job = importJobService.submit(uploads, status);
+            return ResponseEntity.accepted().location(URI.create("/api/routes/import/jobs/" + job.getId())).body(job);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<ImportJobStatus> job(@PathVariable("id") UUID id) {
+        return importJobService.status(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+}
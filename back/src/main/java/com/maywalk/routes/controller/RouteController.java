@@ -1,33 +1,56 @@
 package com.maywalk.routes.controller;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Function;
 
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.maywalk.routes.dto.AddPointRequest;
 import com.maywalk.routes.dto.CreateRouteRequest;
 import com.maywalk.routes.dto.EvaluateRouteRequest;
 import com.maywalk.routes.dto.NearbyPointResponse;
+import com.maywalk.routes.dto.NearbyResult;
 import com.maywalk.routes.dto.NearbySearchRequest;
 import com.maywalk.routes.dto.RouteResponse;
+import com.maywalk.routes.dto.RouteSummaryPage;
+import com.maywalk.routes.dto.SnapRequest;
+import com.maywalk.routes.dto.SnapResponse;
 import com.maywalk.routes.dto.UpdateRouteRequest;
+import com.maywalk.routes.model.BoundingBox;
 import com.maywalk.routes.model.GeoPoint;
+import com.maywalk.routes.model.PackedGeometry;
 import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
 import com.maywalk.routes.model.RouteStatus;
+import com.maywalk.routes.service.RouteImportException;
 import com.maywalk.routes.service.RouteService;
+import com.maywalk.routes.service.RouteVersionConflictException;
+import com.maywalk.routes.util.GeoUtils;
 
 @RestController
 @RequestMapping("/api/routes")
@@ -39,44 +62,115 @@ public class RouteController {
         this.routeService = routeService;
     }
 
+    /**
+     * Every stored route. Like {@code get} and {@code within} it takes {@code tolerance}
+     * (meters) or {@code zoom} (the map zoom level) to send simplified tracks for drawing.
+     */
     @GetMapping
-    public List<Route> list() {
-        return routeService.findAll();
+    public ResponseEntity<List<Route>> list(WebRequest request,
+                                            @RequestParam(value = "tolerance", required = false) Double tolerance,
+                                            @RequestParam(value = "zoom", required = false) Integer zoom) {
+        List<Route> routes = routeService.findAll();
+        long lastModified = -1;
+        long tag = 0;
+        for (Route route : routes) {
+            lastModified = Math.max(lastModified, lastModified(route));
+            // Versions are unique, so any edit, addition or removal changes the sum of their mixes
+            tag += mix(route.getVersion());
+        }
+        if (request.checkNotModified(Long.toHexString(tag), lastModified)) {
+            return notModified();
+        }
+        if (tolerance != null || zoom != null) {
+            routes.replaceAll(route -> routeService.simplified(route, tolerance(tolerance, zoom, referenceLat(route))));
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(routes);
+    }
+
+    /**
+     * Lightweight listing for pickers: summaries without points, newest change first
+     * ({@code order=asc} for oldest), {@code limit} per page and {@code nextCursor} to continue.
+     */
+    @GetMapping("/summaries")
+    public ResponseEntity<?> summaries(@RequestParam(value = "cursor", required = false) String cursor,
+                                       @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                       @RequestParam(value = "name", required = false) String name,
+                                       @RequestParam(value = "order", defaultValue = "desc") String order) {
+        boolean ascending = "asc".equalsIgnoreCase(order);
+        if (!ascending && !"desc".equalsIgnoreCase(order)) {
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body("order must be asc or desc");
+        }
+        try {
+            RouteSummaryPage page = routeService.summaries(cursor, limit, name, ascending);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+        }
+    }
+
+    /**
+     * Routes crossing the map viewport, {@code bbox=west,south,east,north} as Leaflet's
+     * {@code toBBoxString()} gives it; {@code clip=true} trims segments to the box.
+     */
+    @GetMapping("/within")
+    public ResponseEntity<?> within(@RequestParam("bbox") String bbox,
+                                    @RequestParam(value = "clip", defaultValue = "false") boolean clip,
+                                    @RequestParam(value = "tolerance", required = false) Double tolerance,
+                                    @RequestParam(value = "zoom", required = false) Integer zoom) {
+        BoundingBox box = parseBbox(bbox);
+        if (box == null) {
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                    .body("bbox must be west,south,east,north in degrees");
+        }
+        double centerLat = (box.getMinLat() + box.getMaxLat()) / 2;
+        return ResponseEntity.ok(routeService.within(box, clip, tolerance(tolerance, zoom, centerLat)));
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<RouteResponse> get(@PathVariable("id") UUID id) {
-        return routeService.findById(id)
-                .map(route -> ResponseEntity.ok(new RouteResponse(route, routeService.buildMetrics(route))))
-                .orElse(ResponseEntity.notFound().build());
+    public ResponseEntity<RouteResponse> get(@PathVariable("id") UUID id, WebRequest request,
+                                             @RequestParam(value = "tolerance", required = false) Double tolerance,
+                                             @RequestParam(value = "zoom", required = false) Integer zoom) {
+        Optional<Route> found = routeService.findById(id);
+        if (found.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        Route route = found.get();
+        // Metrics still waiting for surface data may change without a new version, so they get no validators
+        boolean settled = routeService.metricsSettled(route);
+        if (settled && request.checkNotModified(eTag(route), lastModified(route))) {
+            return notModified();
+        }
+        // Metrics always come from the full-detail track
+        Route shown = routeService.simplified(route, tolerance(tolerance, zoom, referenceLat(route)));
+        RouteResponse body = new RouteResponse(shown, routeService.buildMetrics(route));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(CacheControl.noCache());
+        if (!settled && routeService.metricsSettled(route)) {
+            // Settled by this request; otherwise checkNotModified has already set the headers
+            response.eTag(eTag(route)).lastModified(lastModified(route));
+        }
+        return response.body(body);
     }
 
     @PostMapping
     public ResponseEntity<RouteResponse> create(@RequestBody @Validated CreateRouteRequest request) {
         Route route = new Route(request.getName(), request.getStatus(), request.getSegments());
-        routeService.save(route);
-        return ResponseEntity.ok(new RouteResponse(route, routeService.buildMetrics(route)));
+        return routeResponse(routeService.save(route));
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<RouteResponse> update(@PathVariable("id") UUID id, @RequestBody @Validated UpdateRouteRequest request) {
-        Optional<Route> existing = routeService.findById(id);
-        if (existing.isEmpty()) {
-            return ResponseEntity.notFound().build();
-        }
-        Route route = existing.get();
-        route.setName(request.getName());
-        route.setStatus(request.getStatus());
-        route.setSegments(request.getSegments());
-        routeService.save(route);
-        return ResponseEntity.ok(new RouteResponse(route, routeService.buildMetrics(route)));
+    public ResponseEntity<RouteResponse> update(@PathVariable("id") UUID id, @RequestBody @Validated UpdateRouteRequest request,
+                                                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return routeService.update(id, expectedVersion(ifMatch), request.getName(), request.getStatus(), request.getSegments())
+                .map(this::routeResponse)
+                .orElse(ResponseEntity.notFound().build());
     }
 
     @PostMapping("/{id}/points")
-    public ResponseEntity<GeoPoint> addPoint(@PathVariable("id") UUID id, @RequestBody @Validated AddPointRequest request) {
+    public ResponseEntity<GeoPoint> addPoint(@PathVariable("id") UUID id, @RequestBody @Validated AddPointRequest request,
+                                             @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         GeoPoint point = new GeoPoint(request.getLat(), request.getLng(), request.isNode());
-        return routeService.addPoint(id, request.getSegmentId(), point)
-                .map(ResponseEntity::ok)
+        return routeService.addPoint(id, request.getSegmentId(), point, expectedVersion(ifMatch))
+                .map(route -> ResponseEntity.ok().eTag(eTag(route)).body(point))
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -87,90 +181,265 @@ public class RouteController {
 
     @PostMapping("/nearest")
     public ResponseEntity<NearbyPointResponse> nearest(@RequestBody @Validated NearbySearchRequest request) {
-        GeoPoint target = new GeoPoint(request.getLat(), request.getLng(), false);
-        return routeService.findNearest(target, request.getThresholdMeters())
-                .map(result -> {
-                    NearbyPointResponse response = new NearbyPointResponse();
-                    response.setPoint(result.getPoint());
-                    response.setRouteId(result.getRoute().getId().toString());
-                    response.setRouteName(result.getRoute().getName());
-                    response.setDistanceMeters(result.getDistanceMeters());
-                    return ResponseEntity.ok(response);
-                })
+        return nearby(request, 1).stream().findFirst()
+                .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @PostMapping("/nearby")
+    public ResponseEntity<List<NearbyPointResponse>> nearbyRoutes(@RequestBody @Validated NearbySearchRequest request) {
+        return ResponseEntity.ok(nearby(request, request.getK()));
+    }
+
+    /**
+     * Snaps a whole track in one call; too many points is a 400.
+     */
+    @PostMapping("/snap")
+    public ResponseEntity<?> snap(@RequestBody @Validated SnapRequest request) {
+        PackedGeometry points = request.getGeometry();
+        List<NearbyResult> results;
+        try {
+            results = routeService.snap(points, request.getThresholdMeters(), request.getStatus(),
+                    request.getExcludeRouteId(), request.isSnapToEdge());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+        }
+        SnapResponse response = new SnapResponse();
+        List<GeoPoint> snappedPoints = new ArrayList<>(results.size());
+        List<String> routeIds = new ArrayList<>(results.size());
+        int snapped = 0;
+        for (int i = 0; i < results.size(); i++) {
+            NearbyResult result = results.get(i);
+            if (result == null) {
+                snappedPoints.add(points.get(i));
+                routeIds.add(null);
+            } else {
+                GeoPoint point = result.getPoint();
+                snappedPoints.add(new GeoPoint(point.getLat(), point.getLng(), points.isNode(i)));
+                routeIds.add(result.getRoute().getId().toString());
+                snapped++;
+            }
+        }
+        response.setPoints(snappedPoints);
+        response.setRouteIds(routeIds);
+        response.setSnapped(snapped);
+        return ResponseEntity.ok(response);
+    }
+
+    private List<NearbyPointResponse> nearby(NearbySearchRequest request, int k) {
+        GeoPoint target = new GeoPoint(request.getLat(), request.getLng(), false);
+        List<NearbyPointResponse> responses = new ArrayList<>();
+        for (NearbyResult result : routeService.findNearby(target, request.getThresholdMeters(), k,
+                request.getStatus(), request.getExcludeRouteId(), request.isSnapToEdge())) {
+            NearbyPointResponse response = new NearbyPointResponse();
+            response.setPoint(result.getPoint());
+            response.setRouteId(result.getRoute().getId().toString());
+            response.setRouteName(result.getRoute().getName());
+            response.setDistanceMeters(result.getDistanceMeters());
+            responses.add(response);
+        }
+        return responses;
+    }
+
     @PostMapping("/{id}/status")
-    public ResponseEntity<RouteResponse> status(@PathVariable("id") UUID id, @RequestBody RouteStatus status) {
-        return routeService.findById(id)
-                .map(route -> {
-                    route.setStatus(status);
-                    routeService.save(route);
-                    return ResponseEntity.ok(new RouteResponse(route, routeService.buildMetrics(route)));
-                })
+    public ResponseEntity<RouteResponse> status(@PathVariable("id") UUID id, @RequestBody RouteStatus status,
+                                                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return routeService.changeStatus(id, expectedVersion(ifMatch), status)
+                .map(this::routeResponse)
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @PostMapping("/{id}/undo")
-    public ResponseEntity<RouteResponse> undo(@PathVariable("id") UUID id) {
-        return routeService.undo(id)
-                .map(route -> ResponseEntity.ok(new RouteResponse(route, routeService.buildMetrics(route))))
+    public ResponseEntity<RouteResponse> undo(@PathVariable("id") UUID id,
+                                              @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return routeService.undo(id, expectedVersion(ifMatch))
+                .map(this::routeResponse)
                 .orElse(ResponseEntity.badRequest().build());
     }
 
     @PostMapping("/{id}/redo")
-    public ResponseEntity<RouteResponse> redo(@PathVariable("id") UUID id) {
-        return routeService.redo(id)
-                .map(route -> ResponseEntity.ok(new RouteResponse(route, routeService.buildMetrics(route))))
+    public ResponseEntity<RouteResponse> redo(@PathVariable("id") UUID id,
+                                              @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return routeService.redo(id, expectedVersion(ifMatch))
+                .map(this::routeResponse)
                 .orElse(ResponseEntity.badRequest().build());
     }
 
     @GetMapping("/{id}/export/gpx")
-    public ResponseEntity<String> exportGpx(@PathVariable("id") UUID id) {
-        return routeService.findById(id)
-                .map(route -> ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=route-" + route.getId() + ".gpx")
-                        .contentType(MediaType.APPLICATION_XML)
-                        .body(routeService.exportGpx(route)))
-                .orElse(ResponseEntity.notFound().build());
+    public ResponseEntity<StreamingResponseBody> exportGpx(@PathVariable("id") UUID id, WebRequest request) {
+        return export(id, request, "gpx", MediaType.APPLICATION_XML, route -> out -> routeService.exportGpx(route, out));
     }
 
     @GetMapping("/{id}/export/kml")
-    public ResponseEntity<String> exportKml(@PathVariable("id") UUID id) {
-        return routeService.findById(id)
-                .map(route -> ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=route-" + route.getId() + ".kml")
-                        .contentType(MediaType.APPLICATION_XML)
-                        .body(routeService.exportKml(route)))
-                .orElse(ResponseEntity.notFound().build());
+    public ResponseEntity<StreamingResponseBody> exportKml(@PathVariable("id") UUID id, WebRequest request) {
+        return export(id, request, "kml", MediaType.APPLICATION_XML, route -> out -> routeService.exportKml(route, out));
     }
 
     @GetMapping("/{id}/export/kmz")
-    public ResponseEntity<byte[]> exportKmz(@PathVariable("id") UUID id) {
-        return routeService.findById(id)
-                .map(route -> {
-                    try {
-                        return ResponseEntity.ok()
-                                .header(HttpHeaders.CONTENT_DISPOSITION,
-                                        "attachment; filename=route-" + route.getId() + ".kmz")
-                                .contentType(MediaType.parseMediaType("application/vnd.google-earth.kmz"))
-                                .body(routeService.exportKmz(route));
-                    } catch (IOException e) {
-                        return ResponseEntity.internalServerError().<byte[]>build();
-                    }
-                })
-                .orElse(ResponseEntity.notFound().<byte[]>build());
+    public ResponseEntity<StreamingResponseBody> exportKmz(@PathVariable("id") UUID id, WebRequest request) {
+        return export(id, request, "kmz", MediaType.parseMediaType("application/vnd.google-earth.kmz"),
+                route -> out -> routeService.exportKmz(route, out));
+    }
+
+    @PostMapping(value = "/import/gpx", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<RouteResponse> importGpxFile(@RequestPart("file") MultipartFile file,
+                                                       @RequestParam(value = "name", defaultValue = "Импорт GPX") String name) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return imported(routeService.importGpx(in, name, RouteStatus.PRELIMINARY));
+        }
+    }
+
+    @PostMapping(value = "/import/gpx", consumes = {MediaType.APPLICATION_OCTET_STREAM_VALUE, MediaType.APPLICATION_XML_VALUE,
+            MediaType.TEXT_XML_VALUE, "application/gpx+xml"})
+    public ResponseEntity<RouteResponse> importGpxStream(InputStream body,
+                                                         @RequestParam(value = "name", defaultValue = "Импорт GPX") String name) {
+        return imported(routeService.importGpx(body, name, RouteStatus.PRELIMINARY));
     }
 
     @PostMapping("/import/gpx")
     public ResponseEntity<RouteResponse> importGpx(@RequestBody String base64Payload) {
-        Route route = routeService.importGpx(base64Payload, "Импорт GPX", RouteStatus.PRELIMINARY);
-        return ResponseEntity.ok(new RouteResponse(route, routeService.buildMetrics(route)));
+        return imported(routeService.importGpx(base64Payload, "Импорт GPX", RouteStatus.PRELIMINARY));
+    }
+
+    @PostMapping(value = "/import/kml", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<RouteResponse> importKmlFile(@RequestPart("file") MultipartFile file,
+                                                       @RequestParam(value = "name", defaultValue = "Импорт KML") String name) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return imported(routeService.importKml(in, name, RouteStatus.PRELIMINARY));
+        }
+    }
+
+    @PostMapping(value = "/import/kml", consumes = {MediaType.APPLICATION_OCTET_STREAM_VALUE, MediaType.APPLICATION_XML_VALUE,
+            MediaType.TEXT_XML_VALUE, "application/vnd.google-earth.kml+xml"})
+    public ResponseEntity<RouteResponse> importKmlStream(InputStream body,
+                                                         @RequestParam(value = "name", defaultValue = "Импорт KML") String name) {
+        return imported(routeService.importKml(body, name, RouteStatus.PRELIMINARY));
     }
 
     @PostMapping("/import/kml")
     public ResponseEntity<RouteResponse> importKml(@RequestBody String base64Payload) {
-        Route route = routeService.importKml(base64Payload, "Импорт KML", RouteStatus.PRELIMINARY);
-        return ResponseEntity.ok(new RouteResponse(route, routeService.buildMetrics(route)));
+        return imported(routeService.importKml(base64Payload, "Импорт KML", RouteStatus.PRELIMINARY));
+    }
+
+    @ExceptionHandler(RouteImportException.class)
+    public ResponseEntity<String> importFailed(RouteImportException e) {
+        return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    @ExceptionHandler(RouteVersionConflictException.class)
+    public ResponseEntity<String> versionConflict(RouteVersionConflictException e) {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                .eTag(Long.toString(e.getCurrentVersion()))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage());
+    }
+
+    /**
+     * Simplification tolerance in meters: {@code tolerance} as given, else one map pixel
+     * at {@code zoom} and {@code lat}, else 0 for every point.
+     */
+    private static double tolerance(Double tolerance, Integer zoom, double lat) {
+        if (tolerance != null) {
+            return Math.max(0, tolerance);
+        }
+        return zoom == null ? 0 : GeoUtils.metersPerPixel(zoom, lat);
+    }
+
+    private static double referenceLat(Route route) {
+        for (RouteSegment segment : route.getSegments()) {
+            if (!segment.getGeometry().isEmpty()) {
+                return segment.getGeometry().lat(0);
+            }
+        }
+        return 0;
+    }
+
+    private static BoundingBox parseBbox(String bbox) {
+        String[] parts = bbox.split(",");
+        if (parts.length != 4) {
+            return null;
+        }
+        double[] values = new double[4];
+        try {
+            for (int i = 0; i < 4; i++) {
+                values[i] = Double.parseDouble(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (!(values[0] <= values[2] && values[1] <= values[3])) {
+            return null;
+        }
+        return new BoundingBox(values[1], values[0], values[3], values[2]);
+    }
+
+    private ResponseEntity<RouteResponse> imported(Route route) {
+        return routeResponse(route);
+    }
+
+    /**
+     * An export depends only on the route version, so a client holding it gets 304 and
+     * nothing is rendered.
+     */
+    private ResponseEntity<StreamingResponseBody> export(UUID id, WebRequest request, String extension, MediaType type,
+                                                         Function<Route, StreamingResponseBody> writer) {
+        Optional<Route> found = routeService.findById(id);
+        if (found.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        Route route = found.get();
+        if (request.checkNotModified(eTag(route), lastModified(route))) {
+            return notModified();
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=route-" + route.getId() + "." + extension)
+                .contentType(type)
+                .body(writer.apply(route));
+    }
+
+    private ResponseEntity<RouteResponse> routeResponse(Route route) {
+        return ResponseEntity.ok().eTag(eTag(route)).body(new RouteResponse(route, routeService.buildMetrics(route)));
+    }
+
+    private static String eTag(Route route) {
+        return Long.toString(route.getVersion());
+    }
+
+    private static long lastModified(Route route) {
+        return route.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Answer for a conditional GET whose validators still match; {@link WebRequest#checkNotModified}
+     * has already set the status and the ETag/Last-Modified headers.
+     */
+    private static <T> ResponseEntity<T> notModified() {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(CacheControl.noCache()).build();
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * Reads an {@code If-Match} header as the route version a write is based on:
+     * absent or {@code *} means unconditional; a weak or foreign tag can never match.
+     */
+    private static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return Long.parseLong(tag.substring(1, tag.length() - 1));
+            } catch (NumberFormatException ignored) {
+                // not one of ours
+            }
+        }
+        return -1L;
     }
 }
@@ -0,0 +1,44 @@
+package com.maywalk.routes.controller;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import com.maywalk.routes.service.VectorTileService;
+
+@RestController
+@RequestMapping("/api/tiles")
+public class TileController {
+    private static final MediaType MVT = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+
+    private final VectorTileService tileService;
+
+    public TileController(VectorTileService tileService) {
+        this.tileService = tileService;
+    }
+
+    /**
+     * The route archive as a Mapbox Vector Tile with one {@code routes} layer; an empty
+     * body means no route crosses the tile.
+     */
+    @GetMapping("/{z}/{x}/{y}.mvt")
+    public ResponseEntity<byte[]> tile(@PathVariable("z") int z, @PathVariable("x") int x, @PathVariable("y") int y,
+                                       WebRequest request) {
+        VectorTileService.Tile tile;
+        try {
+            tile = tileService.tile(z, x, y);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        }
+        if (request.checkNotModified(tile.getETag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(CacheControl.noCache()).build();
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).contentType(MVT).body(tile.getBody());
+    }
+}
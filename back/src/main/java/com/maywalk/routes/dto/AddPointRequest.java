@@ -1,6 +1,8 @@
 package com.maywalk.routes.dto;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotNull;
 
 public class AddPointRequest {
@@ -8,9 +10,13 @@ public class AddPointRequest {
     private String segmentId;
 
     @NotNull
+    @DecimalMin("-90")
+    @DecimalMax("90")
     private Double lat;
 
     @NotNull
+    @DecimalMin("-180")
+    @DecimalMax("180")
     private Double lng;
 
     private boolean node;
@@ -1,16 +1,34 @@
 package com.maywalk.routes.dto;
 
+import java.util.UUID;
+
+import com.maywalk.routes.model.RouteStatus;
+
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotNull;
 
 public class NearbySearchRequest {
     @NotNull
+    @DecimalMin("-90")
+    @DecimalMax("90")
     private Double lat;
 
     @NotNull
+    @DecimalMin("-180")
+    @DecimalMax("180")
     private Double lng;
 
     private double thresholdMeters = 50d;
 
+    private int k = 5;
+
+    private RouteStatus status;
+
+    private UUID excludeRouteId;
+
+    private boolean snapToEdge;
+
     public Double getLat() {
         return lat;
     }
@@ -34,4 +52,39 @@ public class NearbySearchRequest {
     public void setThresholdMeters(double thresholdMeters) {
         this.thresholdMeters = thresholdMeters;
     }
+
+    /**
+     * How many routes {@code /nearby} returns at most; {@code /nearest} always returns one.
+     */
+    public int getK() {
+        return k;
+    }
+
+    public void setK(int k) {
+        this.k = k;
+    }
+
+    public RouteStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(RouteStatus status) {
+        this.status = status;
+    }
+
+    public UUID getExcludeRouteId() {
+        return excludeRouteId;
+    }
+
+    public void setExcludeRouteId(UUID excludeRouteId) {
+        this.excludeRouteId = excludeRouteId;
+    }
+
+    public boolean isSnapToEdge() {
+        return snapToEdge;
+    }
+
+    public void setSnapToEdge(boolean snapToEdge) {
+        this.snapToEdge = snapToEdge;
+    }
 }
@@ -0,0 +1,79 @@
+package com.maywalk.routes.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import com.maywalk.routes.model.BoundingBox;
+import com.maywalk.routes.model.RouteStatus;
+
+/**
+ * Route picker entry: everything about a route except its points.
+ */
+public class RouteSummary {
+    private UUID id;
+    private String name;
+    private RouteStatus status;
+    private LocalDateTime updatedAt;
+    private long version;
+    private BoundingBox bounds;
+    private double totalKm;
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public RouteStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(RouteStatus status) {
+        this.status = status;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Box around every point of the route, {@code null} while it has none.
+     */
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+
+    public void setBounds(BoundingBox bounds) {
+        this.bounds = bounds;
+    }
+
+    public double getTotalKm() {
+        return totalKm;
+    }
+
+    public void setTotalKm(double totalKm) {
+        this.totalKm = totalKm;
+    }
+}
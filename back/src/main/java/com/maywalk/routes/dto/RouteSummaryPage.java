@@ -0,0 +1,36 @@
+package com.maywalk.routes.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RouteSummaryPage {
+    private List<RouteSummary> items = new ArrayList<>();
+    private String nextCursor;
+
+    public RouteSummaryPage() {
+    }
+
+    public RouteSummaryPage(List<RouteSummary> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<RouteSummary> getItems() {
+        return items;
+    }
+
+    public void setItems(List<RouteSummary> items) {
+        this.items = items;
+    }
+
+    /**
+     * Pass back as {@code cursor} to get the next page; {@code null} on the last page.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
@@ -0,0 +1,75 @@
+package com.maywalk.routes.dto;
+
+import java.util.List;
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.maywalk.routes.model.GeoPoint;
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.RouteStatus;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Points to snap to the archive. A {@code RouteSegment} body is accepted as is: only
+ * its {@code points} are read.
+ */
+public class SnapRequest {
+    @NotNull
+    @Valid
+    private PackedGeometry points;
+
+    private double thresholdMeters = 50d;
+
+    private RouteStatus status;
+
+    private UUID excludeRouteId;
+
+    private boolean snapToEdge;
+
+    public List<GeoPoint> getPoints() {
+        return points;
+    }
+
+    public void setPoints(List<GeoPoint> points) {
+        this.points = points == null ? null : PackedGeometry.of(points);
+    }
+
+    @JsonIgnore
+    public PackedGeometry getGeometry() {
+        return points;
+    }
+
+    public double getThresholdMeters() {
+        return thresholdMeters;
+    }
+
+    public void setThresholdMeters(double thresholdMeters) {
+        this.thresholdMeters = thresholdMeters;
+    }
+
+    public RouteStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(RouteStatus status) {
+        this.status = status;
+    }
+
+    public UUID getExcludeRouteId() {
+        return excludeRouteId;
+    }
+
+    public void setExcludeRouteId(UUID excludeRouteId) {
+        this.excludeRouteId = excludeRouteId;
+    }
+
+    public boolean isSnapToEdge() {
+        return snapToEdge;
+    }
+
+    public void setSnapToEdge(boolean snapToEdge) {
+        this.snapToEdge = snapToEdge;
+    }
+}
@@ -0,0 +1,40 @@
+package com.maywalk.routes.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.maywalk.routes.model.GeoPoint;
+
+/**
+ * Snapped points in request order. A point with nothing in range is returned as sent
+ * and its entry in {@code routeIds} is {@code null}; node flags are always kept.
+ */
+public class SnapResponse {
+    private List<GeoPoint> points = new ArrayList<>();
+    private List<String> routeIds = new ArrayList<>();
+    private int snapped;
+
+    public List<GeoPoint> getPoints() {
+        return points;
+    }
+
+    public void setPoints(List<GeoPoint> points) {
+        this.points = points;
+    }
+
+    public List<String> getRouteIds() {
+        return routeIds;
+    }
+
+    public void setRouteIds(List<String> routeIds) {
+        this.routeIds = routeIds;
+    }
+
+    public int getSnapped() {
+        return snapped;
+    }
+
+    public void setSnapped(int snapped) {
+        this.snapped = snapped;
+    }
+}
@@ -0,0 +1,83 @@
+package com.maywalk.routes.model;
+
+import java.util.List;
+
+public class BoundingBox {
+    private double minLat;
+    private double minLng;
+    private double maxLat;
+    private double maxLng;
+
+    public BoundingBox() {
+    }
+
+    public BoundingBox(double minLat, double minLng, double maxLat, double maxLng) {
+        this.minLat = minLat;
+        this.minLng = minLng;
+        this.maxLat = maxLat;
+        this.maxLng = maxLng;
+    }
+
+    public static BoundingBox of(List<GeoPoint> points) {
+        double minLat = Double.MAX_VALUE;
+        double minLng = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double maxLng = -Double.MAX_VALUE;
+        for (GeoPoint point : points) {
+            minLat = Math.min(minLat, point.getLat());
+            maxLat = Math.max(maxLat, point.getLat());
+            minLng = Math.min(minLng, point.getLng());
+            maxLng = Math.max(maxLng, point.getLng());
+        }
+        return new BoundingBox(minLat, minLng, maxLat, maxLng);
+    }
+
+    public BoundingBox pad(double degrees) {
+        return new BoundingBox(minLat - degrees, minLng - degrees, maxLat + degrees, maxLng + degrees);
+    }
+
+    public BoundingBox union(BoundingBox other) {
+        return new BoundingBox(Math.min(minLat, other.minLat), Math.min(minLng, other.minLng),
+                Math.max(maxLat, other.maxLat), Math.max(maxLng, other.maxLng));
+    }
+
+    public boolean intersects(double otherMinLat, double otherMinLng, double otherMaxLat, double otherMaxLng) {
+        return minLat <= otherMaxLat && maxLat >= otherMinLat && minLng <= otherMaxLng && maxLng >= otherMinLng;
+    }
+
+    public boolean intersects(BoundingBox other) {
+        return intersects(other.minLat, other.minLng, other.maxLat, other.maxLng);
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public void setMinLat(double minLat) {
+        this.minLat = minLat;
+    }
+
+    public double getMinLng() {
+        return minLng;
+    }
+
+    public void setMinLng(double minLng) {
+        this.minLng = minLng;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public void setMaxLat(double maxLat) {
+        this.maxLat = maxLat;
+    }
+
+    public double getMaxLng() {
+        return maxLng;
+    }
+
+    public void setMaxLng(double maxLng) {
+        this.maxLng = maxLng;
+    }
+}
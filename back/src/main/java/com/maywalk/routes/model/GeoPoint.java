@@ -1,11 +1,17 @@
 package com.maywalk.routes.model;
 
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotNull;
 
 public class GeoPoint {
     @NotNull
+    @DecimalMin("-90")
+    @DecimalMax("90")
     private Double lat;
     @NotNull
+    @DecimalMin("-180")
+    @DecimalMax("180")
     private Double lng;
     private boolean node;
 
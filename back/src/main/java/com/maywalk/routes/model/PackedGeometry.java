@@ -0,0 +1,469 @@
+package com.maywalk.routes.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.maywalk.routes.util.GeoUtils;
+
+/**
+ * Point list stored as fixed-point (1e-7°, ~1 cm) coordinate arrays plus a
+ * node bitset, about 8 bytes per point instead of a {@link GeoPoint} object
+ * with two boxed doubles. It still behaves as a {@code List<GeoPoint>} so the
+ * JSON contract is unchanged; {@link #get(int)} materialises a point on demand
+ * while the primitive accessors let hot loops run without allocation.
+ *
+ * <p>Versions made by {@link #appended} share their arrays: each index of a
+ * shared lineage is written once, by whichever version claims it first, so an
+ * append costs O(1) amortized and older versions never see the new point. Any
+ * other edit first copies the arrays.
+ */
+public final class PackedGeometry extends AbstractList<GeoPoint> implements RandomAccess {
+    private static final double SCALE = 1e7;
+    private static final int[] EMPTY = new int[0];
+    /** Simplification tolerances in meters, each four times the previous. */
+    private static final double[] LEVELS = {2, 8, 32, 128, 512};
+
+    private int[] lat;
+    private int[] lng;
+    private long[] nodes;
+    private int size;
+    private int stamp;
+    private Lineage lineage;
+    private Measure measured = Measure.EMPTY;
+    private Extent extent = Extent.EMPTY;
+    private Levels levels = Levels.EMPTY;
+
+    public PackedGeometry() {
+        this(0);
+    }
+
+    public PackedGeometry(int capacity) {
+        lat = capacity == 0 ? EMPTY : new int[capacity];
+        lng = capacity == 0 ? EMPTY : new int[capacity];
+        nodes = new long[(capacity + 63) >> 6];
+    }
+
+    public PackedGeometry(Collection<? extends GeoPoint> points) {
+        this(points.size());
+        addAll(points);
+    }
+
+    /**
+     * Returns {@code points} itself if already packed, otherwise a packed copy.
+     */
+    public static PackedGeometry of(List<GeoPoint> points) {
+        if (points instanceof PackedGeometry) {
+            return (PackedGeometry) points;
+        }
+        return points == null ? new PackedGeometry() : new PackedGeometry(points);
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code degrees} is not finite or lies outside
+     *         ±180°, where the fixed-point value would overflow instead
+     */
+    public static int toFixed(double degrees) {
+        if (!within(degrees, 180)) {
+            throw new IllegalArgumentException("Coordinate out of range: " + degrees);
+        }
+        return (int) Math.round(degrees * SCALE);
+    }
+
+    /**
+     * Whether the pair is a valid latitude/longitude; readers of external data use it to
+     * skip a bad position instead of failing the whole file.
+     */
+    public static boolean isCoordinate(double latDegrees, double lngDegrees) {
+        return within(latDegrees, 90) && within(lngDegrees, 180);
+    }
+
+    private static boolean within(double degrees, double limit) {
+        // Written so that NaN fails too
+        return Math.abs(degrees) <= limit;
+    }
+
+    public static double fromFixed(int fixed) {
+        return fixed / SCALE;
+    }
+
+    public double lat(int index) {
+        return lat[check(index)] / SCALE;
+    }
+
+    public double lng(int index) {
+        return lng[check(index)] / SCALE;
+    }
+
+    public int latFixed(int index) {
+        return lat[check(index)];
+    }
+
+    public int lngFixed(int index) {
+        return lng[check(index)];
+    }
+
+    public boolean isNode(int index) {
+        check(index);
+        return (nodes[index >> 6] & (1L << index)) != 0;
+    }
+
+    public void append(double latDegrees, double lngDegrees, boolean node) {
+        appendFixed(toFixed(latDegrees), toFixed(lngDegrees), node);
+    }
+
+    public void appendFixed(int latFixed, int lngFixed, boolean node) {
+        own();
+        if (size == lat.length) {
+            grow(size + 1);
+        }
+        lat[size] = latFixed;
+        lng[size] = lngFixed;
+        // Explicitly, as a forked copy may carry another version's bit here
+        setNode(size, node);
+        size++;
+        modCount++;
+        stamp++;
+        levels = Levels.EMPTY;
+    }
+
+    /**
+     * Length of the polyline in meters, edge by edge with {@link GeoUtils#fastDistanceMeters}
+     * (relative error under 1e-8 against haversine for edges up to 1 km). The running
+     * total is kept, so after an append only the new edges are measured; any other edit
+     * starts over.
+     */
+    public double lengthMeters() {
+        Measure current = measured;
+        int end = size;
+        if (current.points == end) {
+            return current.meters;
+        }
+        double meters = current.meters;
+        for (int i = Math.max(current.points, 1); i < end; i++) {
+            meters += GeoUtils.fastDistanceMeters(lat(i - 1), lng(i - 1), lat(i), lng(i));
+        }
+        measured = new Measure(meters, end);
+        return meters;
+    }
+
+    /**
+     * Counter bumped by every change to the points, for callers that memoize
+     * results derived from this geometry.
+     */
+    public int stamp() {
+        return stamp;
+    }
+
+    /**
+     * Bounding box of the points, kept like the length: after an append only the
+     * new points are looked at.
+     */
+    public BoundingBox bounds() {
+        Extent current = extent;
+        int end = size;
+        if (current.points != end) {
+            int minLat = current.minLat;
+            int minLng = current.minLng;
+            int maxLat = current.maxLat;
+            int maxLng = current.maxLng;
+            for (int i = current.points; i < end; i++) {
+                minLat = Math.min(minLat, lat[i]);
+                maxLat = Math.max(maxLat, lat[i]);
+                minLng = Math.min(minLng, lng[i]);
+                maxLng = Math.max(maxLng, lng[i]);
+            }
+            current = new Extent(minLat, minLng, maxLat, maxLng, end);
+            extent = current;
+        }
+        return new BoundingBox(current.minLat / SCALE, current.minLng / SCALE, current.maxLat / SCALE, current.maxLng / SCALE);
+    }
+
+    /**
+     * Douglas–Peucker simplification for drawing at {@code toleranceMeters}, rounded down
+     * to the nearest of a few fixed levels; node points are always kept. Each level is
+     * computed once and kept until the points change. The result must not be modified.
+     */
+    public PackedGeometry simplified(double toleranceMeters) {
+        int level = -1;
+        while (level + 1 < LEVELS.length && LEVELS[level + 1] <= toleranceMeters) {
+            level++;
+        }
+        if (level < 0 || size <= 2) {
+            return this;
+        }
+        Levels current = levels;
+        PackedGeometry simplified = current.geometries[level];
+        if (simplified == null) {
+            simplified = Simplifier.simplify(this, LEVELS[level]);
+            levels = current.with(level, simplified);
+        }
+        return simplified;
+    }
+
+    public PackedGeometry copy() {
+        return copy(size);
+    }
+
+    /**
+     * Returns a version with one more point at the end, leaving this geometry as it is.
+     * The first append after this version shares its arrays (copied only when full);
+     * a second append to the same version forks a copy. The result keeps the running
+     * length, so measuring it only adds the new edge.
+     */
+    public PackedGeometry appended(double latDegrees, double lngDegrees, boolean node) {
+        int latFixed = toFixed(latDegrees);
+        int lngFixed = toFixed(lngDegrees);
+        Lineage shared = lineage();
+        PackedGeometry next;
+        if (shared.claim(size)) {
+            next = size < lat.length ? new PackedGeometry(0) : copy(grownCapacity(size + 1));
+            if (size < lat.length) {
+                next.lat = lat;
+                next.lng = lng;
+                next.nodes = nodes;
+                next.size = size;
+                next.measured = measured;
+                next.extent = extent;
+            }
+            next.lineage = shared;
+        } else {
+            next = copy(grownCapacity(size + 1));
+        }
+        next.lat[size] = latFixed;
+        next.lng[size] = lngFixed;
+        next.setNode(size, node);
+        next.size = size + 1;
+        next.stamp = stamp + 1;
+        return next;
+    }
+
+    /**
+     * Token shared by this geometry and the versions appended to it, all of which agree
+     * on their common prefix. A caller that saw a version of {@code length} points with
+     * this token can tell a later one extends it with {@link #continues}, without
+     * comparing points.
+     */
+    public synchronized Object lineageToken() {
+        return lineage();
+    }
+
+    /**
+     * Whether the first {@code length} points equal those of a version that carried
+     * {@code token}.
+     */
+    public boolean continues(Object token, int length) {
+        return token != null && token == lineageToken() && size >= length;
+    }
+
+    private synchronized Lineage lineage() {
+        if (lineage == null) {
+            lineage = new Lineage(size);
+        }
+        return lineage;
+    }
+
+    /**
+     * Takes private copies of arrays other versions may share, before an edit in place.
+     */
+    private synchronized void own() {
+        if (lineage != null) {
+            lat = Arrays.copyOf(lat, lat.length);
+            lng = Arrays.copyOf(lng, lng.length);
+            nodes = Arrays.copyOf(nodes, nodes.length);
+            lineage = null;
+        }
+    }
+
+    private PackedGeometry copy(int capacity) {
+        PackedGeometry copy = new PackedGeometry(0);
+        copy.lat = Arrays.copyOf(lat, capacity);
+        copy.lng = Arrays.copyOf(lng, capacity);
+        copy.nodes = Arrays.copyOf(nodes, (capacity + 63) >> 6);
+        copy.size = size;
+        copy.measured = measured;
+        copy.extent = extent;
+        return copy;
+    }
+
+    @Override
+    public GeoPoint get(int index) {
+        return new GeoPoint(lat(index), lng(index), isNode(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(GeoPoint point) {
+        append(point.getLat(), point.getLng(), point.isNode());
+        return true;
+    }
+
+    @Override
+    public void add(int index, GeoPoint point) {
+        if (index == size) {
+            add(point);
+            return;
+        }
+        checkInsert(index);
+        appendFixed(0, 0, false);
+        for (int i = size - 1; i > index; i--) {
+            copyPoint(i - 1, i);
+        }
+        writePoint(index, point);
+    }
+
+    @Override
+    public GeoPoint set(int index, GeoPoint point) {
+        GeoPoint previous = get(index);
+        own();
+        writePoint(index, point);
+        return previous;
+    }
+
+    @Override
+    public GeoPoint remove(int index) {
+        GeoPoint previous = get(index);
+        own();
+        for (int i = index + 1; i < size; i++) {
+            copyPoint(i, i - 1);
+        }
+        size--;
+        nodes[size >> 6] &= ~(1L << size);
+        modCount++;
+        edited();
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        own();
+        size = 0;
+        Arrays.fill(nodes, 0L);
+        modCount++;
+        edited();
+    }
+
+    private void writePoint(int index, GeoPoint point) {
+        lat[index] = toFixed(point.getLat());
+        lng[index] = toFixed(point.getLng());
+        setNode(index, point.isNode());
+        edited();
+    }
+
+    private void edited() {
+        stamp++;
+        measured = Measure.EMPTY;
+        extent = Extent.EMPTY;
+        levels = Levels.EMPTY;
+    }
+
+    private void copyPoint(int from, int to) {
+        lat[to] = lat[from];
+        lng[to] = lng[from];
+        setNode(to, (nodes[from >> 6] & (1L << from)) != 0);
+    }
+
+    private void setNode(int index, boolean node) {
+        if (node) {
+            nodes[index >> 6] |= 1L << index;
+        } else {
+            nodes[index >> 6] &= ~(1L << index);
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = grownCapacity(minCapacity);
+        lat = Arrays.copyOf(lat, capacity);
+        lng = Arrays.copyOf(lng, capacity);
+        nodes = Arrays.copyOf(nodes, (capacity + 63) >> 6);
+    }
+
+    private int grownCapacity(int minCapacity) {
+        return Math.max(minCapacity, lat.length + (lat.length >> 1) + 4);
+    }
+
+    private int check(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        return index;
+    }
+
+    private void checkInsert(int index) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+    }
+
+    /**
+     * How far a shared lineage has been written; claiming index {@code i} succeeds for
+     * exactly one version of {@code i} points.
+     */
+    private static final class Lineage {
+        private final AtomicInteger end;
+
+        Lineage(int end) {
+            this.end = new AtomicInteger(end);
+        }
+
+        boolean claim(int index) {
+            return end.compareAndSet(index, index + 1);
+        }
+    }
+
+    private static final class Measure {
+        static final Measure EMPTY = new Measure(0, 0);
+
+        final double meters;
+        final int points;
+
+        Measure(double meters, int points) {
+            this.meters = meters;
+            this.points = points;
+        }
+    }
+
+    /**
+     * Immutable so a reader racing the lazy fill sees either no level or a complete one.
+     */
+    private static final class Levels {
+        static final Levels EMPTY = new Levels(new PackedGeometry[LEVELS.length]);
+
+        final PackedGeometry[] geometries;
+
+        Levels(PackedGeometry[] geometries) {
+            this.geometries = geometries;
+        }
+
+        Levels with(int level, PackedGeometry geometry) {
+            PackedGeometry[] next = geometries.clone();
+            next[level] = geometry;
+            return new Levels(next);
+        }
+    }
+
+    private static final class Extent {
+        static final Extent EMPTY = new Extent(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, 0);
+
+        final int minLat;
+        final int minLng;
+        final int maxLat;
+        final int maxLng;
+        final int points;
+
+        Extent(int minLat, int minLng, int maxLat, int maxLng, int points) {
+            this.minLat = minLat;
+            this.minLng = minLng;
+            this.maxLat = maxLat;
+            this.maxLng = maxLng;
+            this.points = points;
+        }
+    }
+}
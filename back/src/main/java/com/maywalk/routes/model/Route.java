@@ -5,6 +5,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
@@ -23,6 +25,9 @@ public class Route {
 
     private LocalDateTime updatedAt = LocalDateTime.now();
 
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private long version;
+
     public Route() {
     }
 
@@ -73,4 +78,16 @@ public class Route {
     public void setUpdatedAt(LocalDateTime updatedAt) {
         this.updatedAt = updatedAt;
     }
+
+    /**
+     * Service-assigned, unique across routes; every stored snapshot gets a new one.
+     * Sent as the route's ETag and expected back in {@code If-Match}.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
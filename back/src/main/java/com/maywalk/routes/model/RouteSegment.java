@@ -1,9 +1,10 @@
 package com.maywalk.routes.model;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
@@ -20,7 +21,7 @@ public class RouteSegment {
     private boolean preliminary;
 
     @Valid
-    private List<GeoPoint> points = new ArrayList<>();
+    private PackedGeometry points = new PackedGeometry();
 
     public RouteSegment() {
     }
@@ -30,7 +31,7 @@ public class RouteSegment {
         this.surfaceType = surfaceType;
         this.preliminary = preliminary;
         if (points != null) {
-            this.points.addAll(points);
+            this.points = new PackedGeometry(points);
         }
     }
 
@@ -71,6 +72,11 @@ public class RouteSegment {
     }
 
     public void setPoints(List<GeoPoint> points) {
-        this.points = points;
+        this.points = PackedGeometry.of(points);
+    }
+
+    @JsonIgnore
+    public PackedGeometry getGeometry() {
+        return points;
     }
 }
@@ -0,0 +1,87 @@
+package com.maywalk.routes.model;
+
+/**
+ * Douglas–Peucker simplification in a local equirectangular projection. Node
+ * points split the track into spans simplified on their own, so every node and
+ * both ends survive whatever the tolerance.
+ */
+final class Simplifier {
+    /** Fixed-point units (1e-7°) per meter along a meridian. */
+    private static final double UNITS_PER_METER = 1e7 / 111_320d;
+
+    private Simplifier() {
+    }
+
+    static PackedGeometry simplify(PackedGeometry points, double toleranceMeters) {
+        int n = points.size();
+        if (n <= 2) {
+            return points;
+        }
+        double cosLat = Math.cos(Math.toRadians(points.lat(0)));
+        double tolerance = toleranceMeters * UNITS_PER_METER;
+        double toleranceSquared = tolerance * tolerance;
+        boolean[] keep = new boolean[n];
+        // Each pending span is a pair of indices; a span splits into at most two, so n pairs suffice
+        int[] stack = new int[2 * n];
+        int top = 0;
+        int start = 0;
+        keep[0] = true;
+        for (int i = 1; i < n; i++) {
+            if (i == n - 1 || points.isNode(i)) {
+                keep[i] = true;
+                stack[top++] = start;
+                stack[top++] = i;
+                start = i;
+            }
+        }
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            if (last - first < 2) {
+                continue;
+            }
+            double ax = points.lngFixed(first) * cosLat;
+            double ay = points.latFixed(first);
+            double dx = points.lngFixed(last) * cosLat - ax;
+            double dy = points.latFixed(last) - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double farthest = -1;
+            int split = -1;
+            for (int i = first + 1; i < last; i++) {
+                double px = points.lngFixed(i) * cosLat - ax;
+                double py = points.latFixed(i) - ay;
+                double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+                double ex = px - t * dx;
+                double ey = py - t * dy;
+                double distanceSquared = ex * ex + ey * ey;
+                if (distanceSquared > farthest) {
+                    farthest = distanceSquared;
+                    split = i;
+                }
+            }
+            if (farthest > toleranceSquared) {
+                keep[split] = true;
+                stack[top++] = first;
+                stack[top++] = split;
+                stack[top++] = split;
+                stack[top++] = last;
+            }
+        }
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) {
+                kept++;
+            }
+        }
+        if (kept == n) {
+            return points;
+        }
+        PackedGeometry simplified = new PackedGeometry(kept);
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                simplified.appendFixed(points.latFixed(i), points.lngFixed(i), points.isNode(i));
+            }
+        }
+        return simplified;
+    }
+}
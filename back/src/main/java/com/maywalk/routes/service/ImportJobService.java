@@ -0,0 +1,351 @@
+package com.maywalk.routes.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.maywalk.routes.dto.ImportJobStatus;
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+import com.maywalk.routes.model.RouteStatus;
+
+/**
+ * Bulk GPX/KML import for moving a whole archive in. Uploaded files and zip archives
+ * are staged in a temporary directory and imported by a background job, one job at a
+ * time. Files are parsed on a bounded pool with at most two per thread in flight, and
+ * parsed routes are committed {@code maywalk.import.batch-size} at a time through
+ * {@link RouteService#importBatch}, which waits for the journal, so parsing never runs
+ * far ahead of the disk. The last {@value #KEPT_JOBS} jobs can be looked up by id.
+ */
+@Service
+public class ImportJobService implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ImportJobService.class);
+    private static final int KEPT_JOBS = 100;
+    private static final int MAX_ERRORS = 100;
+
+    private final RouteService routeService;
+    private final int batchSize;
+    private final ThreadPoolTaskExecutor parsers;
+    private final int maxInFlight;
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "route-import");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<UUID, Job> jobs = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Job> eldest) {
+            return size() > KEPT_JOBS;
+        }
+    };
+    private final Counter imported;
+    private final Counter failed;
+    private final Counter skipped;
+
+    public ImportJobService(RouteService routeService, MeterRegistry registry,
+                            @Value("${maywalk.import.parallelism:0}") int parallelism,
+                            @Value("${maywalk.import.batch-size:256}") int batchSize) {
+        this.routeService = routeService;
+        this.batchSize = Math.max(1, batchSize);
+        this.parsers = WorkerPools.fixed(parallelism, "route-import-");
+        this.maxInFlight = parsers.getMaxPoolSize() * 2;
+        this.imported = registry.counter("maywalk.import.files", "outcome", "imported");
+        this.failed = registry.counter("maywalk.import.files", "outcome", "failed");
+        this.skipped = registry.counter("maywalk.import.files", "outcome", "skipped");
+    }
+
+    /**
+     * Stages {@code uploads} (GPX, KML or zip files holding them) and queues a job that
+     * imports every track as a route in {@code status}.
+     *
+     * @throws IllegalArgumentException if there is nothing to import
+     * @throws IOException if an upload could not be staged
+     */
+    public ImportJobStatus submit(List<MultipartFile> uploads, RouteStatus status) throws IOException {
+        if (uploads.isEmpty()) {
+            throw new IllegalArgumentException("No files to import");
+        }
+        Path dir = Files.createTempDirectory("maywalk-import-");
+        List<Staged> staged = new ArrayList<>(uploads.size());
+        try {
+            for (MultipartFile upload : uploads) {
+                Path file = dir.resolve(staged.size() + ".upload");
+                upload.transferTo(file);
+                String name = upload.getOriginalFilename();
+                staged.add(new Staged(name == null || name.isBlank() ? file.getFileName().toString() : name, file));
+            }
+        } catch (IOException | RuntimeException e) {
+            delete(dir);
+            throw e;
+        }
+        Job job = new Job(dir, staged, status);
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+        }
+        runner.submit(() -> run(job));
+        return job.status();
+    }
+
+    public Optional<ImportJobStatus> status(UUID id) {
+        synchronized (jobs) {
+            return Optional.ofNullable(jobs.get(id)).map(Job::status);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        runner.shutdownNow();
+        parsers.shutdown();
+    }
+
+    private void run(Job job) {
+        job.startedAt = LocalDateTime.now();
+        job.state = ImportJobStatus.State.RUNNING;
+        ImportJobStatus.State outcome = ImportJobStatus.State.FAILED;
+        List<ZipFile> archives = new ArrayList<>();
+        try {
+            List<Source> sources = list(job, archives);
+            job.total = sources.size() + job.failed;
+            CompletionService<Route> parsed = new ExecutorCompletionService<>(parsers);
+            List<Route> batch = new ArrayList<>(batchSize);
+            int inFlight = 0;
+            for (Source source : sources) {
+                if (inFlight == maxInFlight) {
+                    collect(job, parsed.take(), batch);
+                    inFlight--;
+                }
+                parsed.submit(() -> parse(source, job.routeStatus));
+                inFlight++;
+            }
+            for (; inFlight > 0; inFlight--) {
+                collect(job, parsed.take(), batch);
+            }
+            commit(job, batch);
+            outcome = ImportJobStatus.State.DONE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.message = "Import interrupted";
+        } catch (RuntimeException e) {
+            log.error("Bulk import {} failed", job.id, e);
+            job.message = e.getMessage();
+        } finally {
+            for (ZipFile archive : archives) {
+                try {
+                    archive.close();
+                } catch (IOException e) {
+                    log.warn("Could not close {}", archive.getName(), e);
+                }
+            }
+            delete(job.dir);
+            job.finishedAt = LocalDateTime.now();
+            job.state = outcome;
+        }
+    }
+
+    /**
+     * The GPX and KML files of the job, looking inside zip archives; anything else is
+     * counted as skipped and an unreadable archive as one failed file.
+     */
+    private List<Source> list(Job job, List<ZipFile> archives) {
+        List<Source> sources = new ArrayList<>();
+        for (Staged staged : job.staged) {
+            if (!staged.name.toLowerCase(Locale.ROOT).endsWith(".zip")) {
+                add(job, sources, staged.name, () -> Files.newInputStream(staged.path));
+                continue;
+            }
+            ZipFile archive;
+            try {
+                archive = new ZipFile(staged.path.toFile());
+            } catch (IOException e) {
+                fail(job, staged.name + ": " + e.getMessage());
+                continue;
+            }
+            archives.add(archive);
+            Enumeration<? extends ZipEntry> entries = archive.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    add(job, sources, entry.getName(), () -> archive.getInputStream(entry));
+                }
+            }
+        }
+        return sources;
+    }
+
+    private void add(Job job, List<Source> sources, String name, Opener opener) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        String file = lower.substring(Math.max(lower.lastIndexOf('/'), lower.lastIndexOf('\\')) + 1);
+        // macOS zips carry "._name.gpx" resource forks next to the real files
+        boolean track = (lower.endsWith(".gpx") || lower.endsWith(".kml")) && !file.startsWith("._");
+        if (track) {
+            sources.add(new Source(name, lower.endsWith(".kml"), opener));
+        } else {
+            job.skipped++;
+            skipped.increment();
+        }
+    }
+
+    private static Route parse(Source source, RouteStatus status) {
+        String name = source.routeName();
+        boolean preliminary = status == RouteStatus.PRELIMINARY;
+        try (InputStream in = source.opener.open()) {
+            List<RouteSegment> segments = source.kml
+                    ? RouteImportReader.readKml(in, name + " трасса", preliminary)
+                    : RouteImportReader.readGpx(in, name + " трек", preliminary);
+            return new Route(name, status, segments);
+        } catch (IOException | RuntimeException e) {
+            throw new RouteImportException(source.name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void collect(Job job, Future<Route> future, List<Route> batch) throws InterruptedException {
+        try {
+            batch.add(future.get());
+        } catch (ExecutionException e) {
+            fail(job, e.getCause().getMessage());
+            return;
+        }
+        if (batch.size() >= batchSize) {
+            commit(job, batch);
+        }
+    }
+
+    private void commit(Job job, List<Route> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        routeService.importBatch(new ArrayList<>(batch));
+        job.imported += batch.size();
+        imported.increment(batch.size());
+        batch.clear();
+    }
+
+    private void fail(Job job, String error) {
+        job.failed++;
+        failed.increment();
+        synchronized (job.errors) {
+            if (job.errors.size() < MAX_ERRORS) {
+                job.errors.add(error);
+            }
+        }
+    }
+
+    private static void delete(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            log.warn("Could not delete import staging directory {}", dir, e);
+        }
+    }
+
+    private interface Opener {
+        InputStream open() throws IOException;
+    }
+
+    private static final class Staged {
+        final String name;
+        final Path path;
+
+        Staged(String name, Path path) {
+            this.name = name;
+            this.path = path;
+        }
+    }
+
+    private static final class Source {
+        final String name;
+        final boolean kml;
+        final Opener opener;
+
+        Source(String name, boolean kml, Opener opener) {
+            this.name = name;
+            this.kml = kml;
+            this.opener = opener;
+        }
+
+        /**
+         * File name without directories and extension.
+         */
+        String routeName() {
+            String file = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+            return file.substring(0, file.lastIndexOf('.'));
+        }
+    }
+
+    /**
+     * Counters are written by the job's runner thread only and read by status requests.
+     */
+    private static final class Job {
+        final UUID id = UUID.randomUUID();
+        final Path dir;
+        final List<Staged> staged;
+        final RouteStatus routeStatus;
+        final LocalDateTime createdAt = LocalDateTime.now();
+        final List<String> errors = new ArrayList<>();
+        volatile ImportJobStatus.State state = ImportJobStatus.State.QUEUED;
+        volatile int total;
+        volatile int imported;
+        volatile int failed;
+        volatile int skipped;
+        volatile String message;
+        volatile LocalDateTime startedAt;
+        volatile LocalDateTime finishedAt;
+
+        Job(Path dir, List<Staged> staged, RouteStatus routeStatus) {
+            this.dir = dir;
+            this.staged = staged;
+            this.routeStatus = routeStatus;
+        }
+
+        ImportJobStatus status() {
+            ImportJobStatus status = new ImportJobStatus();
+            status.setId(id.toString());
+            status.setState(state);
+            status.setTotal(total);
+            status.setImported(imported);
+            status.setFailed(failed);
+            status.setSkipped(skipped);
+            synchronized (errors) {
+                status.setErrors(new ArrayList<>(errors));
+            }
+            status.setMessage(message);
+            status.setCreatedAt(createdAt);
+            status.setStartedAt(startedAt);
+            status.setFinishedAt(finishedAt);
+            return status;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.maywalk.routes.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes one Mapbox Vector Tile (spec v2) layer of line features with string and
+ * boolean attributes. The few protobuf fields this needs are encoded by hand, the
+ * same way the GPX and KML exports are written without a binding library.
+ */
+final class MvtEncoder {
+    static final int EXTENT = 4096;
+
+    private static final int VARINT = 0;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int LINESTRING = 2;
+    private static final int MOVE_TO = 1;
+    private static final int LINE_TO = 2;
+
+    private final String layer;
+    private final List<String> keys = new ArrayList<>();
+    private final Map<String, Integer> keyIndex = new HashMap<>();
+    private final List<Object> values = new ArrayList<>();
+    private final Map<Object, Integer> valueIndex = new HashMap<>();
+    private final ByteArrayOutputStream features = new ByteArrayOutputStream();
+    private int featureCount;
+
+    MvtEncoder(String layer) {
+        this.layer = layer;
+    }
+
+    /**
+     * Adds a (multi)line feature. Each part holds interleaved x, y tile coordinates
+     * without repeated points; parts shorter than two points are skipped.
+     */
+    void addLine(Map<String, Object> attributes, List<int[]> parts) {
+        ByteArrayOutputStream geometry = new ByteArrayOutputStream();
+        int cursorX = 0;
+        int cursorY = 0;
+        for (int[] part : parts) {
+            int points = part.length / 2;
+            if (points < 2) {
+                continue;
+            }
+            writeVarint(geometry, command(MOVE_TO, 1));
+            writeVarint(geometry, zigZag(part[0] - cursorX));
+            writeVarint(geometry, zigZag(part[1] - cursorY));
+            writeVarint(geometry, command(LINE_TO, points - 1));
+            for (int i = 1; i < points; i++) {
+                writeVarint(geometry, zigZag(part[2 * i] - part[2 * i - 2]));
+                writeVarint(geometry, zigZag(part[2 * i + 1] - part[2 * i - 1]));
+            }
+            cursorX = part[2 * points - 2];
+            cursorY = part[2 * points - 1];
+        }
+        if (geometry.size() == 0) {
+            return;
+        }
+        ByteArrayOutputStream tags = new ByteArrayOutputStream();
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            if (attribute.getValue() == null) {
+                continue;
+            }
+            writeVarint(tags, keyIndex.computeIfAbsent(attribute.getKey(), key -> {
+                keys.add(key);
+                return keys.size() - 1;
+            }));
+            writeVarint(tags, valueIndex.computeIfAbsent(attribute.getValue(), value -> {
+                values.add(value);
+                return values.size() - 1;
+            }));
+        }
+        ByteArrayOutputStream feature = new ByteArrayOutputStream();
+        writeBytes(feature, 2, tags.toByteArray());
+        writeTag(feature, 3, VARINT);
+        writeVarint(feature, LINESTRING);
+        writeBytes(feature, 4, geometry.toByteArray());
+        writeBytes(features, 2, feature.toByteArray());
+        featureCount++;
+    }
+
+    /**
+     * The encoded tile, or an empty array when no feature was added.
+     */
+    byte[] encode() {
+        if (featureCount == 0) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(features.size() + 256);
+        writeTag(body, 15, VARINT);
+        writeVarint(body, 2);
+        writeBytes(body, 1, layer.getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(features.toByteArray());
+        for (String key : keys) {
+            writeBytes(body, 3, key.getBytes(StandardCharsets.UTF_8));
+        }
+        for (Object value : values) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            if (value instanceof Boolean) {
+                writeTag(encoded, 7, VARINT);
+                writeVarint(encoded, (Boolean) value ? 1 : 0);
+            } else {
+                writeBytes(encoded, 1, value.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            writeBytes(body, 4, encoded.toByteArray());
+        }
+        writeTag(body, 5, VARINT);
+        writeVarint(body, EXTENT);
+        ByteArrayOutputStream tile = new ByteArrayOutputStream(body.size() + 8);
+        writeBytes(tile, 3, body.toByteArray());
+        return tile.toByteArray();
+    }
+
+    private static int command(int id, int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static void writeTag(ByteArrayOutputStream out, int field, int wireType) {
+        writeVarint(out, (field << 3) | wireType);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, int field, byte[] bytes) {
+        writeTag(out, field, LENGTH_DELIMITED);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
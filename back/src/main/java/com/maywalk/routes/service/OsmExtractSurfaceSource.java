@@ -0,0 +1,164 @@
+package com.maywalk.routes.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maywalk.routes.model.BoundingBox;
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.SurfaceType;
+
+/**
+ * Offline surface source: loads highway/railway ways from a local GeoJSON
+ * extract at startup and serves lookups from an in-memory grid. The extract
+ * is either a FeatureCollection or GeoJSON text sequence, e.g. produced from a
+ * PBF with {@code osmium export -f geojsonseq region.osm.pbf}; feature
+ * properties are read as OSM tags.
+ */
+@Component
+@ConditionalOnProperty(name = "maywalk.surface.source", havingValue = "extract")
+public class OsmExtractSurfaceSource implements SurfaceSource {
+    private static final Logger log = LoggerFactory.getLogger(OsmExtractSurfaceSource.class);
+    private static final double CELL_DEGREES = 0.01;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<Long, List<OsmWay>> cells = new HashMap<>();
+    private long nextId;
+
+    public OsmExtractSurfaceSource(@Value("${maywalk.surface.extract}") String extract) throws IOException {
+        Path path = Paths.get(extract);
+        long started = System.nanoTime();
+        readFeatures(path, this::addFeature);
+        log.info("Loaded {} ways into {} cells from {} in {} ms", nextId, cells.size(), path,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @Override
+    public List<OsmWay> ways(BoundingBox box, long deadlineNanos) {
+        Set<OsmWay> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int row = cell(box.getMinLat()); row <= cell(box.getMaxLat()); row++) {
+            for (int col = cell(box.getMinLng()); col <= cell(box.getMaxLng()); col++) {
+                List<OsmWay> ways = cells.get(key(row, col));
+                if (ways == null) {
+                    continue;
+                }
+                for (OsmWay way : ways) {
+                    if (way.getBounds().intersects(box)) {
+                        result.add(way);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    private void readFeatures(Path path, Consumer<JsonNode> consumer) throws IOException {
+        String fileName = path.getFileName().toString();
+        if (fileName.endsWith(".geojsonseq") || fileName.endsWith(".geojsonl") || fileName.endsWith(".jsonl")) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // RFC 8142 prefixes each record with an ASCII record separator
+                    line = line.replace("\u001e", "").trim();
+                    if (!line.isEmpty()) {
+                        consumer.accept(mapper.readTree(line));
+                    }
+                }
+            }
+            return;
+        }
+        try (JsonParser parser = mapper.getFactory().createParser(path.toFile())) {
+            while (parser.nextToken() != null) {
+                if (parser.currentToken() == JsonToken.FIELD_NAME && "features".equals(parser.getCurrentName())) {
+                    if (parser.nextToken() != JsonToken.START_ARRAY) {
+                        break;
+                    }
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        consumer.accept(mapper.readTree(parser));
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private void addFeature(JsonNode feature) {
+        JsonNode tags = feature.get("properties");
+        JsonNode geometry = feature.get("geometry");
+        // Only the ways the Overpass source queries, so both sources classify a route the same way
+        if (tags == null || geometry == null || !(tags.has("highway") || tags.has("railway"))) {
+            return;
+        }
+        SurfaceType type = OsmWay.classifyTags(tags);
+        if (type == SurfaceType.UNKNOWN) {
+            return;
+        }
+        String geometryType = geometry.path("type").asText();
+        JsonNode coordinates = geometry.get("coordinates");
+        if ("LineString".equals(geometryType)) {
+            addWay(type, coordinates);
+        } else if ("MultiLineString".equals(geometryType) || ("Polygon".equals(geometryType) && isClosedWay(tags))) {
+            for (JsonNode line : coordinates) {
+                addWay(type, line);
+            }
+        }
+    }
+
+    /**
+     * Exporters may write a closed way as a polygon; it is still a way to walk along only
+     * when tagged {@code area=no}, otherwise it is a square or other area.
+     */
+    private static boolean isClosedWay(JsonNode tags) {
+        return "no".equals(tags.path("area").asText());
+    }
+
+    private void addWay(SurfaceType type, JsonNode coordinates) {
+        PackedGeometry points = new PackedGeometry();
+        for (JsonNode position : coordinates) {
+            double lat = position.path(1).asDouble(Double.NaN);
+            double lng = position.path(0).asDouble(Double.NaN);
+            if (PackedGeometry.isCoordinate(lat, lng)) {
+                points.append(lat, lng, false);
+            }
+        }
+        if (points.isEmpty()) {
+            return;
+        }
+        OsmWay way = new OsmWay(nextId++, type, points);
+        BoundingBox bounds = way.getBounds();
+        for (int row = cell(bounds.getMinLat()); row <= cell(bounds.getMaxLat()); row++) {
+            for (int col = cell(bounds.getMinLng()); col <= cell(bounds.getMaxLng()); col++) {
+                cells.computeIfAbsent(key(row, col), k -> new ArrayList<>()).add(way);
+            }
+        }
+    }
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+}
@@ -0,0 +1,61 @@
+package com.maywalk.routes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.maywalk.routes.model.BoundingBox;
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.SurfaceType;
+
+/**
+ * A classified OSM highway/railway way with its geometry.
+ */
+public class OsmWay {
+    private final long id;
+    private final SurfaceType type;
+    private final PackedGeometry geometry;
+    private final BoundingBox bounds;
+
+    public OsmWay(long id, SurfaceType type, PackedGeometry geometry) {
+        this.id = id;
+        this.type = type;
+        this.geometry = geometry;
+        this.bounds = geometry.bounds();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public SurfaceType getType() {
+        return type;
+    }
+
+    public PackedGeometry getGeometry() {
+        return geometry;
+    }
+
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Maps OSM tags to a surface type; shared by every {@link SurfaceSource}.
+     */
+    public static SurfaceType classifyTags(JsonNode tags) {
+        if (tags.has("railway")) {
+            return SurfaceType.RAILWAY;
+        }
+        String surface = tags.has("surface") ? tags.get("surface").asText("").toLowerCase() : "";
+        String highway = tags.has("highway") ? tags.get("highway").asText("").toLowerCase() : "";
+        if (surface.contains("asphalt") || surface.contains("paved")) {
+            return SurfaceType.ASPHALT;
+        }
+        if (highway.equals("track") || surface.contains("ground") || surface.contains("dirt") || surface.contains("gravel")) {
+            return SurfaceType.FIELD_PATH;
+        }
+        if (highway.equals("path") || highway.equals("footway") || highway.equals("bridleway") || highway.equals("cycleway")) {
+            return SurfaceType.FOREST_TRAIL;
+        }
+        return SurfaceType.UNKNOWN;
+    }
+}
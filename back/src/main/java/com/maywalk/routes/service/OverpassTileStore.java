@@ -0,0 +1,375 @@
+package com.maywalk.routes.service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maywalk.routes.model.BoundingBox;
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.SurfaceType;
+
+/**
+ * Surface source backed by the public Overpass API. Ways are fetched in fixed 0.01° tiles. Missing
+ * tiles of a request are loaded with union queries of up to 24 tiles, sent
+ * concurrently through one shared async client and kept in an LRU shared by all
+ * segments and routes. Concurrent requests for the same tile join one download.
+ * <p>
+ * Every call has a timeout and callers stop waiting at their deadline. At most
+ * {@code max-concurrent} queries are in flight (a bulkhead). After repeated
+ * failures a circuit breaker refuses calls for a while, so callers degrade to
+ * "unavailable" at once instead of queueing behind a slow upstream. A download
+ * that outlives its caller still fills the cache for the next request.
+ */
+@Component
+@ConditionalOnProperty(name = "maywalk.surface.source", havingValue = "overpass", matchIfMissing = true)
+public class OverpassTileStore implements SurfaceSource {
+    static final double TILE_DEGREES = 0.01; // ~1.1km north-south
+    private static final int MAX_TILES_PER_QUERY = 24;
+    private static final Logger log = LoggerFactory.getLogger(OverpassTileStore.class);
+
+    private final String url;
+    private final int maxTiles;
+    private final Duration callTimeout;
+    private final HttpClient client;
+    private final Semaphore permits;
+    private final CircuitBreaker breaker;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<Long, List<OsmWay>> tiles;
+    private final Map<Long, CompletableFuture<Void>> inflight = new HashMap<>();
+    private final Timer fetchTimer;
+    private final Counter succeeded;
+    private final Counter rejected;
+    private final Counter failed;
+    private final Counter shortCircuited;
+    private final Counter bulkheadFull;
+    private final Counter tilesFetched;
+
+    public OverpassTileStore(@Value("${maywalk.overpass.url:https://overpass-api.de/api/interpreter}") String url,
+                             @Value("${maywalk.overpass.max-tiles:4096}") int maxTiles,
+                             @Value("${maywalk.overpass.call-timeout:5s}") Duration callTimeout,
+                             @Value("${maywalk.overpass.max-concurrent:4}") int maxConcurrent,
+                             @Value("${maywalk.overpass.breaker.failures:5}") int breakerFailures,
+                             @Value("${maywalk.overpass.breaker.open:30s}") Duration breakerOpen,
+                             @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                             MeterRegistry registry) {
+        this.url = url;
+        this.maxTiles = maxTiles;
+        this.callTimeout = callTimeout;
+        HttpClient.Builder client = HttpClient.newBuilder().connectTimeout(callTimeout);
+        Executor virtual = VirtualThreads.executor(virtualThreads, "overpass-");
+        if (virtual != null) {
+            client.executor(virtual);
+        }
+        this.client = client.build();
+        this.permits = new Semaphore(Math.max(maxConcurrent, 1));
+        this.breaker = new CircuitBreaker(breakerFailures, breakerOpen.toNanos());
+        this.fetchTimer = Timer.builder("maywalk.overpass.fetch")
+                .description("Overpass union query round trips, including parsing")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.succeeded = registry.counter("maywalk.overpass.requests", "outcome", "success");
+        this.rejected = registry.counter("maywalk.overpass.requests", "outcome", "http_error");
+        this.failed = registry.counter("maywalk.overpass.requests", "outcome", "failure");
+        this.shortCircuited = registry.counter("maywalk.overpass.requests", "outcome", "short_circuited");
+        this.bulkheadFull = registry.counter("maywalk.overpass.requests", "outcome", "bulkhead_full");
+        this.tilesFetched = registry.counter("maywalk.overpass.tiles.fetched");
+        Gauge.builder("maywalk.overpass.tiles.cached", this, OverpassTileStore::cachedTiles).register(registry);
+        Gauge.builder("maywalk.overpass.breaker.open", breaker, b -> b.state() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("1 while the Overpass circuit breaker refuses or probes calls").register(registry);
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<OsmWay>> eldest) {
+                return size() > OverpassTileStore.this.maxTiles;
+            }
+        };
+    }
+
+    /**
+     * Loads every tile touched by the given boxes that is not cached yet.
+     */
+    @Override
+    public void prefetch(Collection<BoundingBox> boxes, long deadlineNanos) {
+        Set<Long> keys = new LinkedHashSet<>();
+        for (BoundingBox box : boxes) {
+            keys.addAll(tileKeys(box));
+        }
+        await(load(keys, deadlineNanos), deadlineNanos);
+    }
+
+    @Override
+    public List<OsmWay> ways(BoundingBox box, long deadlineNanos) {
+        List<Long> keys = tileKeys(box);
+        await(load(keys, deadlineNanos), deadlineNanos);
+        Map<Long, OsmWay> result = new LinkedHashMap<>();
+        for (long key : keys) {
+            List<OsmWay> tile = tile(key);
+            if (tile == null) {
+                return null;
+            }
+            for (OsmWay way : tile) {
+                if (way.getBounds().intersects(box)) {
+                    result.putIfAbsent(way.getId(), way);
+                }
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    private synchronized List<OsmWay> tile(long key) {
+        return tiles.get(key);
+    }
+
+    private synchronized void storeTile(long key, List<OsmWay> ways) {
+        tiles.put(key, ways);
+    }
+
+    private synchronized int cachedTiles() {
+        return tiles.size();
+    }
+
+    /**
+     * Starts downloads for the tiles that are neither cached nor already being
+     * fetched, and returns every download the caller has to wait for.
+     */
+    private Collection<CompletableFuture<Void>> load(Collection<Long> keys, long deadlineNanos) {
+        Set<CompletableFuture<Void>> waits = new LinkedHashSet<>();
+        Map<CompletableFuture<Void>, List<Long>> started = new LinkedHashMap<>();
+        synchronized (this) {
+            List<Long> batch = new ArrayList<>();
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            for (long key : keys) {
+                if (tiles.containsKey(key)) {
+                    continue;
+                }
+                CompletableFuture<Void> running = inflight.get(key);
+                if (running != null) {
+                    waits.add(running);
+                    continue;
+                }
+                inflight.put(key, done);
+                batch.add(key);
+                if (batch.size() == MAX_TILES_PER_QUERY) {
+                    started.put(done, batch);
+                    batch = new ArrayList<>();
+                    done = new CompletableFuture<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                started.put(done, batch);
+            }
+        }
+        started.forEach((done, batch) -> {
+            waits.add(done);
+            send(batch, done, deadlineNanos);
+        });
+        return waits;
+    }
+
+    private void send(List<Long> keys, CompletableFuture<Void> done, long deadlineNanos) {
+        boolean sent = false;
+        try {
+            if (!permits.tryAcquire(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                bulkheadFull.increment();
+                return;
+            }
+            if (!breaker.tryAcquire()) {
+                permits.release();
+                shortCircuited.increment();
+                return;
+            }
+            Timer.Sample sample = Timer.start();
+            client.sendAsync(request(keys), HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, error) -> {
+                        try {
+                            sample.stop(fetchTimer);
+                            complete(keys, response, error);
+                        } finally {
+                            permits.release();
+                            finish(keys, done);
+                        }
+                    });
+            sent = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            permits.release();
+            breaker.onFailure();
+            failed.increment();
+            log.warn("Could not send Overpass query for {} tiles: {}", keys.size(), e.toString());
+        } finally {
+            if (!sent) {
+                finish(keys, done);
+            }
+        }
+    }
+
+    private void complete(List<Long> keys, HttpResponse<String> response, Throwable error) {
+        if (error != null) {
+            // Tiles stay missing, so the segments fall back to UNKNOWN uncached and are retried later
+            breaker.onFailure();
+            failed.increment();
+            log.warn("Overpass query for {} tiles failed: {}", keys.size(), error.toString());
+            return;
+        }
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            breaker.onFailure();
+            rejected.increment();
+            log.warn("Overpass answered HTTP {}", response.statusCode());
+            return;
+        }
+        List<OsmWay> ways;
+        try {
+            ways = parseWays(mapper.readTree(response.body()));
+        } catch (Exception e) {
+            breaker.onFailure();
+            failed.increment();
+            log.warn("Unreadable Overpass response for {} tiles: {}", keys.size(), e.toString());
+            return;
+        }
+        breaker.onSuccess();
+        succeeded.increment();
+        tilesFetched.increment(keys.size());
+        for (long key : keys) {
+            double south = tileLat(key);
+            double west = tileLng(key);
+            List<OsmWay> tileWays = new ArrayList<>();
+            for (OsmWay way : ways) {
+                if (way.getBounds().intersects(south, west, south + TILE_DEGREES, west + TILE_DEGREES)) {
+                    tileWays.add(way);
+                }
+            }
+            storeTile(key, tileWays);
+        }
+    }
+
+    private void finish(List<Long> keys, CompletableFuture<Void> done) {
+        synchronized (this) {
+            for (long key : keys) {
+                inflight.remove(key, done);
+            }
+        }
+        done.complete(null);
+    }
+
+    private static void await(Collection<CompletableFuture<Void>> waits, long deadlineNanos) {
+        if (waits.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(waits.toArray(new CompletableFuture<?>[0]))
+                    .get(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // whatever has not arrived by the deadline counts as unavailable
+        }
+    }
+
+    private HttpRequest request(List<Long> keys) {
+        // Let the server give up no later than we do
+        long serverTimeout = Math.max(callTimeout.toSeconds(), 1);
+        StringBuilder query = new StringBuilder("[out:json][timeout:").append(serverTimeout).append("];(");
+        for (long key : keys) {
+            String bbox = String.format(Locale.ROOT, "(%f,%f,%f,%f)",
+                    tileLat(key), tileLng(key), tileLat(key) + TILE_DEGREES, tileLng(key) + TILE_DEGREES);
+            query.append("way[\"railway\"]").append(bbox).append(';');
+            query.append("way[\"highway\"]").append(bbox).append(';');
+        }
+        query.append(");out tags geom;");
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(callTimeout)
+                .header("Content-Type", "text/plain")
+                .POST(HttpRequest.BodyPublishers.ofString(query.toString()))
+                .build();
+    }
+
+    private List<OsmWay> parseWays(JsonNode response) {
+        List<OsmWay> ways = new ArrayList<>();
+        if (!response.has("elements")) {
+            return ways;
+        }
+        for (JsonNode element : response.get("elements")) {
+            JsonNode tagsNode = element.get("tags");
+            SurfaceType type = SurfaceType.UNKNOWN;
+            if (tagsNode != null) {
+                type = OsmWay.classifyTags(tagsNode);
+            }
+            if (type == SurfaceType.UNKNOWN) {
+                continue;
+            }
+            PackedGeometry geometry = parseGeometry(element.get("geometry"));
+            if (!geometry.isEmpty()) {
+                ways.add(new OsmWay(element.path("id").asLong(), type, geometry));
+            }
+        }
+        return ways;
+    }
+
+    private PackedGeometry parseGeometry(JsonNode geometryNode) {
+        PackedGeometry points = new PackedGeometry();
+        if (geometryNode == null || !geometryNode.isArray()) {
+            return points;
+        }
+        for (JsonNode node : geometryNode) {
+            double lat = node.path("lat").asDouble(Double.NaN);
+            double lng = node.path("lon").asDouble(Double.NaN);
+            if (PackedGeometry.isCoordinate(lat, lng)) {
+                points.append(lat, lng, false);
+            }
+        }
+        return points;
+    }
+
+    private static List<Long> tileKeys(BoundingBox box) {
+        int minRow = (int) Math.floor(box.getMinLat() / TILE_DEGREES);
+        int maxRow = (int) Math.floor(box.getMaxLat() / TILE_DEGREES);
+        int minCol = (int) Math.floor(box.getMinLng() / TILE_DEGREES);
+        int maxCol = (int) Math.floor(box.getMaxLng() / TILE_DEGREES);
+        List<Long> keys = new ArrayList<>();
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                keys.add(((long) row << 32) | (col & 0xffffffffL));
+            }
+        }
+        return keys;
+    }
+
+    private static double tileLat(long key) {
+        return (int) (key >> 32) * TILE_DEGREES;
+    }
+
+    private static double tileLng(long key) {
+        return (int) key * TILE_DEGREES;
+    }
+}
@@ -0,0 +1,453 @@
+package com.maywalk.routes.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import com.maywalk.routes.model.GeoPoint;
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+import com.maywalk.routes.util.GeoUtils;
+
+/**
+ * Uniform lat/lng grid over every stored route point and track edge. A radius query
+ * only visits the cells overlapping the search circle instead of the whole archive.
+ * Each cell keeps, per route, the points inside it and the edges crossing it.
+ */
+class PointIndex {
+    private static final double FIXED_PER_DEGREE = PackedGeometry.toFixed(1);
+    private static final int[] NO_EDGES = new int[0];
+
+    private final double cellDegrees;
+    private final Map<Long, Map<UUID, Bucket>> cells = new HashMap<>();
+    private final Map<UUID, Set<Long>> cellsByRoute = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    PointIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    void index(Route route) {
+        lock.writeLock().lock();
+        try {
+            indexLocked(route);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a batch of routes under one write lock.
+     */
+    void index(Collection<Route> routes) {
+        lock.writeLock().lock();
+        try {
+            for (Route route : routes) {
+                indexLocked(route);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void indexLocked(Route route) {
+        removeLocked(route.getId());
+        for (RouteSegment segment : route.getSegments()) {
+            PackedGeometry geometry = segment.getGeometry();
+            for (int i = 0; i < geometry.size(); i++) {
+                addPointLocked(route.getId(), geometry.latFixed(i), geometry.lngFixed(i), geometry.isNode(i));
+                int from = i == 0 ? 0 : i - 1;
+                if (i > 0 || geometry.size() == 1) {
+                    addEdgeLocked(route.getId(), geometry.latFixed(from), geometry.lngFixed(from),
+                            geometry.latFixed(i), geometry.lngFixed(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes {@code point} appended to a segment whose last point was {@code previous},
+     * or {@code null} if the segment was empty.
+     */
+    void add(UUID routeId, GeoPoint previous, GeoPoint point) {
+        int latFixed = PackedGeometry.toFixed(point.getLat());
+        int lngFixed = PackedGeometry.toFixed(point.getLng());
+        lock.writeLock().lock();
+        try {
+            addPointLocked(routeId, latFixed, lngFixed, point.isNode());
+            if (previous == null) {
+                addEdgeLocked(routeId, latFixed, lngFixed, latFixed, lngFixed);
+            } else {
+                addEdgeLocked(routeId, PackedGeometry.toFixed(previous.getLat()), PackedGeometry.toFixed(previous.getLng()),
+                        latFixed, lngFixed);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(UUID routeId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(routeId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            cells.clear();
+            cellsByRoute.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code k} routes accepted by {@code accept} with a point (or, with
+     * {@code edges}, a track edge) within {@code thresholdMeters} of the target, closest
+     * first, each with its own closest hit. Candidates are compared by squared
+     * equirectangular distance (see {@link GeoUtils#segmentDistanceSquared}) against the
+     * k-th best so far, kept in a bounded heap; only the results are measured by haversine.
+     */
+    List<Hit> nearest(GeoPoint target, double thresholdMeters, int k, boolean edges, Predicate<UUID> accept) {
+        lock.readLock().lock();
+        try {
+            return searchLocked(target.getLat(), target.getLng(), thresholdMeters, k, edges, accept, null).hits();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Snaps {@code points[from, to)} one by one, as {@link #nearest} with {@code k = 1}
+     * would, under a single read lock. Each search starts in the cell of the previous
+     * point's hit: along a track that usually holds the next hit too, so the limit drops
+     * to a few meters at once and the other cells in the radius are skipped.
+     *
+     * @return one hit per point, {@code null} where nothing is in range
+     */
+    List<Hit> snap(PackedGeometry points, int from, int to, double thresholdMeters, boolean edges,
+                   Predicate<UUID> accept) {
+        List<Hit> hits = new ArrayList<>(to - from);
+        lock.readLock().lock();
+        try {
+            Hit previous = null;
+            for (int i = from; i < to; i++) {
+                List<Hit> found = searchLocked(points.lat(i), points.lng(i), thresholdMeters, 1, edges, accept,
+                        previous).hits();
+                Hit hit = found.isEmpty() ? null : found.get(0);
+                hits.add(hit);
+                if (hit != null) {
+                    previous = hit;
+                }
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Search searchLocked(double lat, double lng, double thresholdMeters, int k, boolean edges,
+                                Predicate<UUID> accept, Hit hint) {
+        double latSpan = thresholdMeters / GeoUtils.METERS_PER_DEGREE;
+        double cosLat = Math.max(Math.cos(Math.toRadians(lat)), 1e-6);
+        double lngSpan = latSpan / cosLat;
+        int minLat = cell(lat - latSpan);
+        int maxLat = cell(lat + latSpan);
+        int minLng = cell(lng - lngSpan);
+        int maxLng = cell(lng + lngSpan);
+        Search search = new Search(lat, lng, cosLat, latSpan, cellDegrees, k, edges, accept);
+        long range = (long) (maxLat - minLat + 1) * (maxLng - minLng + 1);
+        if (range > cells.size()) {
+            // The circle covers more cells than are populated: walk the occupied ones
+            for (Map<UUID, Bucket> bucket : cells.values()) {
+                search.scan(bucket);
+            }
+            return search;
+        }
+        // The most promising cells first, so the limit shrinks before the neighbours are checked
+        int homeLat = cell(lat);
+        int homeLng = cell(lng);
+        long home = key(homeLat, homeLng);
+        long hinted = hint == null ? home : key(cell(hint.point.getLat()), cell(hint.point.getLng()));
+        if (hinted != home) {
+            search.scan(cells.get(hinted));
+        }
+        search.scan(cells.get(home));
+        for (int latCell = minLat; latCell <= maxLat; latCell++) {
+            for (int lngCell = minLng; lngCell <= maxLng; lngCell++) {
+                long key = key(latCell, lngCell);
+                if (key != home && key != hinted && search.reaches(latCell, lngCell)) {
+                    search.scan(cells.get(key));
+                }
+            }
+        }
+        return search;
+    }
+
+    private void addPointLocked(UUID routeId, int latFixed, int lngFixed, boolean node) {
+        long key = key(cell(PackedGeometry.fromFixed(latFixed)), cell(PackedGeometry.fromFixed(lngFixed)));
+        bucketLocked(key, routeId).points.appendFixed(latFixed, lngFixed, node);
+    }
+
+    /**
+     * Lists the edge in every cell its line crosses, column by column, so a long
+     * hand-drawn edge does not fill its whole bounding box.
+     */
+    private void addEdgeLocked(UUID routeId, int fromLat, int fromLng, int toLat, int toLng) {
+        double aLat = PackedGeometry.fromFixed(fromLat);
+        double aLng = PackedGeometry.fromFixed(fromLng);
+        double bLat = PackedGeometry.fromFixed(toLat);
+        double bLng = PackedGeometry.fromFixed(toLng);
+        double westLng = Math.min(aLng, bLng);
+        double eastLng = Math.max(aLng, bLng);
+        for (int lngCell = cell(westLng); lngCell <= cell(eastLng); lngCell++) {
+            double latLow;
+            double latHigh;
+            if (aLng == bLng) {
+                latLow = Math.min(aLat, bLat);
+                latHigh = Math.max(aLat, bLat);
+            } else {
+                double slope = (bLat - aLat) / (bLng - aLng);
+                double enterLat = aLat + (Math.max(westLng, lngCell * cellDegrees) - aLng) * slope;
+                double leaveLat = aLat + (Math.min(eastLng, (lngCell + 1) * cellDegrees) - aLng) * slope;
+                latLow = Math.min(enterLat, leaveLat);
+                latHigh = Math.max(enterLat, leaveLat);
+            }
+            for (int latCell = cell(latLow); latCell <= cell(latHigh); latCell++) {
+                bucketLocked(key(latCell, lngCell), routeId).addEdge(fromLat, fromLng, toLat, toLng);
+            }
+        }
+    }
+
+    private Bucket bucketLocked(long key, UUID routeId) {
+        cellsByRoute.computeIfAbsent(routeId, k -> new HashSet<>()).add(key);
+        return cells.computeIfAbsent(key, k -> new HashMap<>()).computeIfAbsent(routeId, k -> new Bucket());
+    }
+
+    private void removeLocked(UUID routeId) {
+        Set<Long> keys = cellsByRoute.remove(routeId);
+        if (keys == null) {
+            return;
+        }
+        for (Long key : keys) {
+            Map<UUID, Bucket> bucket = cells.get(key);
+            if (bucket != null) {
+                bucket.remove(routeId);
+                if (bucket.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    private int cell(double degrees) {
+        return (int) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long key(int latCell, int lngCell) {
+        return ((long) latCell << 32) | (lngCell & 0xffffffffL);
+    }
+
+    /**
+     * One route's points inside a cell and the edges crossing it, four ints per edge.
+     */
+    private static final class Bucket {
+        final PackedGeometry points = new PackedGeometry();
+        int[] edges = NO_EDGES;
+        int edgeCount;
+
+        void addEdge(int fromLat, int fromLng, int toLat, int toLng) {
+            int at = edgeCount * 4;
+            if (at == edges.length) {
+                edges = Arrays.copyOf(edges, Math.max(8, edges.length * 2));
+            }
+            edges[at] = fromLat;
+            edges[at + 1] = fromLng;
+            edges[at + 2] = toLat;
+            edges[at + 3] = toLng;
+            edgeCount++;
+        }
+    }
+
+    /**
+     * The k closest routes so far, by squared distance in fixed-point units with
+     * longitude scaled by cos(lat) of the target. The heap's head is the k-th best,
+     * which bounds every further candidate once the heap is full.
+     */
+    private static final class Search {
+        private final double lat;
+        private final double lng;
+        private final double x;
+        private final double y;
+        private final double cosLat;
+        private final double cellFixed;
+        private final int k;
+        private final boolean edges;
+        private final Predicate<UUID> accept;
+        private final Map<UUID, Candidate> byRoute = new HashMap<>();
+        private final PriorityQueue<Candidate> heap =
+                new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> c.distanceSquared).reversed());
+        private double limitSquared;
+
+        Search(double lat, double lng, double cosLat, double radiusDegrees, double cellDegrees, int k,
+               boolean edges, Predicate<UUID> accept) {
+            this.lat = lat;
+            this.lng = lng;
+            this.x = lng * FIXED_PER_DEGREE * cosLat;
+            this.y = lat * FIXED_PER_DEGREE;
+            this.cosLat = cosLat;
+            this.cellFixed = cellDegrees * FIXED_PER_DEGREE;
+            this.k = k;
+            this.edges = edges;
+            this.accept = accept;
+            double radius = radiusDegrees * FIXED_PER_DEGREE;
+            this.limitSquared = radius * radius;
+        }
+
+        boolean reaches(int latCell, int lngCell) {
+            double minY = latCell * cellFixed;
+            double minX = lngCell * cellFixed * cosLat;
+            double dy = Math.max(0, Math.max(minY - y, y - (minY + cellFixed)));
+            double dx = Math.max(0, Math.max(minX - x, x - (minX + cellFixed * cosLat)));
+            return dx * dx + dy * dy <= limitSquared;
+        }
+
+        void scan(Map<UUID, Bucket> cell) {
+            if (cell == null) {
+                return;
+            }
+            for (Map.Entry<UUID, Bucket> entry : cell.entrySet()) {
+                UUID routeId = entry.getKey();
+                if (!accept.test(routeId)) {
+                    continue;
+                }
+                Candidate known = byRoute.get(routeId);
+                double routeLimit = known == null ? limitSquared : Math.min(limitSquared, known.distanceSquared);
+                Candidate found = edges ? closestEdge(routeId, entry.getValue(), routeLimit)
+                        : closestPoint(routeId, entry.getValue().points, routeLimit);
+                if (found != null) {
+                    offer(known, found);
+                }
+            }
+        }
+
+        private Candidate closestPoint(UUID routeId, PackedGeometry points, double routeLimit) {
+            int index = -1;
+            for (int i = 0; i < points.size(); i++) {
+                double dy = points.latFixed(i) - y;
+                double dx = points.lngFixed(i) * cosLat - x;
+                double distanceSquared = dx * dx + dy * dy;
+                if (distanceSquared <= routeLimit) {
+                    routeLimit = distanceSquared;
+                    index = i;
+                }
+            }
+            return index < 0 ? null
+                    : new Candidate(routeId, routeLimit, points.lat(index), points.lng(index), points.isNode(index));
+        }
+
+        private Candidate closestEdge(UUID routeId, Bucket bucket, double routeLimit) {
+            int[] ends = bucket.edges;
+            int best = -1;
+            for (int at = 0; at < bucket.edgeCount * 4; at += 4) {
+                double ay = ends[at];
+                double ax = ends[at + 1] * cosLat;
+                double by = ends[at + 2];
+                double bx = ends[at + 3] * cosLat;
+                // The edge's box is a cheap lower bound on its distance
+                double boxY = Math.max(0, Math.max(Math.min(ay, by) - y, y - Math.max(ay, by)));
+                double boxX = Math.max(0, Math.max(Math.min(ax, bx) - x, x - Math.max(ax, bx)));
+                if (boxX * boxX + boxY * boxY > routeLimit) {
+                    continue;
+                }
+                double distanceSquared = GeoUtils.segmentDistanceSquared(x, y, ax, ay, bx, by);
+                if (distanceSquared <= routeLimit) {
+                    routeLimit = distanceSquared;
+                    best = at;
+                }
+            }
+            if (best < 0) {
+                return null;
+            }
+            double ay = ends[best];
+            double ax = ends[best + 1] * cosLat;
+            double dy = ends[best + 2] - ay;
+            double dx = ends[best + 3] * cosLat - ax;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / lengthSquared));
+            double snappedLat = (ay + t * dy) / FIXED_PER_DEGREE;
+            double snappedLng = (ends[best + 1] + t * (ends[best + 3] - ends[best + 1])) / FIXED_PER_DEGREE;
+            return new Candidate(routeId, routeLimit, snappedLat, snappedLng, false);
+        }
+
+        private void offer(Candidate known, Candidate found) {
+            if (known != null) {
+                heap.remove(known);
+            }
+            byRoute.put(found.routeId, found);
+            heap.add(found);
+            if (heap.size() > k) {
+                byRoute.remove(heap.poll().routeId);
+            }
+            if (heap.size() == k) {
+                limitSquared = heap.peek().distanceSquared;
+            }
+        }
+
+        List<Hit> hits() {
+            List<Candidate> sorted = new ArrayList<>(heap);
+            sorted.sort(Comparator.comparingDouble(c -> c.distanceSquared));
+            List<Hit> hits = new ArrayList<>(sorted.size());
+            for (Candidate candidate : sorted) {
+                GeoPoint point = new GeoPoint(candidate.lat, candidate.lng, candidate.node);
+                hits.add(new Hit(candidate.routeId, point,
+                        GeoUtils.distanceMeters(lat, lng, candidate.lat, candidate.lng)));
+            }
+            return hits;
+        }
+    }
+
+    private static final class Candidate {
+        final UUID routeId;
+        final double distanceSquared;
+        final double lat;
+        final double lng;
+        final boolean node;
+
+        Candidate(UUID routeId, double distanceSquared, double lat, double lng, boolean node) {
+            this.routeId = routeId;
+            this.distanceSquared = distanceSquared;
+            this.lat = lat;
+            this.lng = lng;
+            this.node = node;
+        }
+    }
+
+    static class Hit {
+        final UUID routeId;
+        final GeoPoint point;
+        final double distanceMeters;
+
+        Hit(UUID routeId, GeoPoint point, double distanceMeters) {
+            this.routeId = routeId;
+            this.point = point;
+            this.distanceMeters = distanceMeters;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.maywalk.routes.service;
+
+import java.util.Arrays;
+
+import com.maywalk.routes.model.PackedGeometry;
+
+/**
+ * Immutable prefix view of a growable coordinate buffer. A run that ends at the
+ * buffer's tip can be extended in place, so consecutive history versions of a
+ * segment that only gained points share one buffer.
+ */
+final class PointRun {
+    static final int BYTES_PER_POINT = 9; // two fixed-point ints and a node flag
+
+    private final Buffer buffer;
+    private final int length;
+    private final int allocatedPoints;
+    private final Object lineage;
+
+    private PointRun(Buffer buffer, int length, int allocatedPoints, Object lineage) {
+        this.buffer = buffer;
+        this.length = length;
+        this.allocatedPoints = allocatedPoints;
+        this.lineage = lineage;
+    }
+
+    static PointRun of(PackedGeometry points) {
+        Buffer buffer = new Buffer(Math.max(points.size(), 4));
+        buffer.append(points, 0);
+        return new PointRun(buffer, points.size(), points.size(), points.lineageToken());
+    }
+
+    /**
+     * Returns a run holding {@code points}, reusing this run when the points equal it
+     * or only add new points after it. A geometry that is this run's one unchanged or
+     * grown by appends is recognized by its lineage, so recording such an edit costs
+     * O(change); only a geometry replaced wholesale (by a PUT, whose request already
+     * carried every point) is compared point by point.
+     */
+    PointRun extend(PackedGeometry points) {
+        if (!points.continues(lineage, length) && (points.size() < length || !isPrefixOf(points))) {
+            return of(points);
+        }
+        if (points.size() == length) {
+            return this;
+        }
+        synchronized (buffer) {
+            if (buffer.size == length) {
+                buffer.append(points, length);
+                return new PointRun(buffer, points.size(), points.size() - length, points.lineageToken());
+            }
+        }
+        // Another version already grew the shared buffer past this run
+        return of(points);
+    }
+
+    int length() {
+        return length;
+    }
+
+    int allocatedPoints() {
+        return allocatedPoints;
+    }
+
+    PackedGeometry toGeometry() {
+        PackedGeometry points = new PackedGeometry(length);
+        synchronized (buffer) {
+            for (int i = 0; i < length; i++) {
+                points.appendFixed(buffer.lat[i], buffer.lng[i], buffer.node[i]);
+            }
+        }
+        return points;
+    }
+
+    private boolean isPrefixOf(PackedGeometry points) {
+        synchronized (buffer) {
+            for (int i = 0; i < length; i++) {
+                if (buffer.lat[i] != points.latFixed(i) || buffer.lng[i] != points.lngFixed(i) || buffer.node[i] != points.isNode(i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static final class Buffer {
+        int[] lat;
+        int[] lng;
+        boolean[] node;
+        int size;
+
+        Buffer(int capacity) {
+            lat = new int[capacity];
+            lng = new int[capacity];
+            node = new boolean[capacity];
+        }
+
+        void append(PackedGeometry points, int from) {
+            int required = size + points.size() - from;
+            if (required > lat.length) {
+                int capacity = Math.max(required, size + (size >> 1) + 1);
+                lat = Arrays.copyOf(lat, capacity);
+                lng = Arrays.copyOf(lng, capacity);
+                node = Arrays.copyOf(node, capacity);
+            }
+            for (int i = from; i < points.size(); i++) {
+                lat[size] = points.latFixed(i);
+                lng[size] = points.lngFixed(i);
+                node[size] = points.isNode(i);
+                size++;
+            }
+        }
+    }
+}
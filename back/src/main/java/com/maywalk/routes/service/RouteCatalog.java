@@ -0,0 +1,129 @@
+package com.maywalk.routes.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.maywalk.routes.dto.RouteSummary;
+import com.maywalk.routes.dto.RouteSummaryPage;
+
+/**
+ * Secondary index of route summaries ordered by {@code updatedAt}, ties broken by id.
+ * A summary is built once per published snapshot, so listing never touches points,
+ * and a page costs one skip-list seek plus a step per entry it returns or filters out.
+ */
+final class RouteCatalog {
+    private final ConcurrentSkipListMap<Key, Entry> byUpdate = new ConcurrentSkipListMap<>();
+    private final Map<UUID, Key> keys = new ConcurrentHashMap<>();
+
+    /**
+     * Replaces the route's entry; callers hold the route's write lock.
+     */
+    void put(RouteSummary summary) {
+        Key key = new Key(summary.getUpdatedAt(), summary.getId());
+        byUpdate.put(key, new Entry(summary));
+        Key previous = keys.put(summary.getId(), key);
+        if (previous != null && !previous.equals(key)) {
+            byUpdate.remove(previous);
+        }
+    }
+
+    void clear() {
+        byUpdate.clear();
+        keys.clear();
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    /**
+     * Returns up to {@code limit} summaries whose name contains {@code nameFilter} (ignoring
+     * case), newest first unless {@code ascending}, continuing after {@code cursor}.
+     *
+     * @throws IllegalArgumentException if the cursor was not produced by this method
+     */
+    RouteSummaryPage page(String cursor, int limit, String nameFilter, boolean ascending) {
+        NavigableMap<Key, Entry> order = ascending ? byUpdate : byUpdate.descendingMap();
+        if (cursor != null && !cursor.isEmpty()) {
+            order = order.tailMap(Key.decode(cursor), false);
+        }
+        String needle = nameFilter == null || nameFilter.isBlank() ? null : nameFilter.trim().toLowerCase(Locale.ROOT);
+        List<RouteSummary> items = new ArrayList<>(Math.min(limit, 64));
+        Key last = null;
+        for (Map.Entry<Key, Entry> entry : order.entrySet()) {
+            if (needle != null && !entry.getValue().lowerName.contains(needle)) {
+                continue;
+            }
+            if (items.size() == limit) {
+                return new RouteSummaryPage(items, last.encode());
+            }
+            items.add(entry.getValue().summary);
+            last = entry.getKey();
+        }
+        return new RouteSummaryPage(items, null);
+    }
+
+    static final class Key implements Comparable<Key> {
+        private final LocalDateTime updatedAt;
+        private final UUID id;
+
+        Key(LocalDateTime updatedAt, UUID id) {
+            this.updatedAt = updatedAt;
+            this.id = id;
+        }
+
+        String encode() {
+            String plain = updatedAt + "~" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Key decode(String cursor) {
+            try {
+                String plain = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = plain.indexOf('~');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Bad cursor '" + cursor + "'");
+                }
+                return new Key(LocalDateTime.parse(plain.substring(0, separator)), UUID.fromString(plain.substring(separator + 1)));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Bad cursor '" + cursor + "'", e);
+            }
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byTime = updatedAt.compareTo(other.updatedAt);
+            return byTime != 0 ? byTime : id.compareTo(other.id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && compareTo((Key) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return updatedAt.hashCode() * 31 + id.hashCode();
+        }
+    }
+
+    private static final class Entry {
+        final RouteSummary summary;
+        final String lowerName;
+
+        Entry(RouteSummary summary) {
+            this.summary = summary;
+            this.lowerName = summary.getName() == null ? "" : summary.getName().toLowerCase(Locale.ROOT);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.maywalk.routes.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+
+/**
+ * Writes GPX/KML/KMZ documents point by point to an output stream, so an
+ * export only buffers a few kilobytes no matter how long the track is.
+ * The caller owns the stream; it is flushed but never closed here.
+ */
+final class RouteExportWriter {
+    private static final int BUFFER_CHARS = 8192;
+
+    private RouteExportWriter() {
+    }
+
+    static void writeGpx(Route route, OutputStream out) throws IOException {
+        Writer writer = open(out);
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<gpx version=\"1.1\" creator=\"MayWalk\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+        for (RouteSegment segment : route.getSegments()) {
+            writer.write("  <trk><name>");
+            writeText(writer, segment.getName());
+            writer.write("</name><trkseg>\n");
+            PackedGeometry points = segment.getGeometry();
+            for (int i = 0; i < points.size(); i++) {
+                writer.write("    <trkpt lat=\"");
+                writer.write(Double.toString(points.lat(i)));
+                writer.write("\" lon=\"");
+                writer.write(Double.toString(points.lng(i)));
+                writer.write("\">");
+                if (points.isNode(i)) {
+                    writer.write("<type>node</type>");
+                }
+                writer.write("</trkpt>\n");
+            }
+            writer.write("  </trkseg></trk>\n");
+        }
+        writer.write("</gpx>");
+        writer.flush();
+    }
+
+    static void writeKml(Route route, OutputStream out) throws IOException {
+        Writer writer = open(out);
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document>\n");
+        writer.write("<name>");
+        writeText(writer, route.getName());
+        writer.write("</name>\n");
+        for (RouteSegment segment : route.getSegments()) {
+            writer.write("<Placemark><name>");
+            writeText(writer, segment.getName());
+            writer.write("</name><LineString><coordinates>\n");
+            PackedGeometry points = segment.getGeometry();
+            for (int i = 0; i < points.size(); i++) {
+                writer.write(Double.toString(points.lng(i)));
+                writer.write(',');
+                writer.write(Double.toString(points.lat(i)));
+                writer.write(",0 ");
+            }
+            writer.write("</coordinates></LineString></Placemark>\n");
+        }
+        writer.write("</Document></kml>");
+        writer.flush();
+    }
+
+    static void writeKmz(Route route, OutputStream out) throws IOException {
+        // Deflated on the fly; finish() rather than close() leaves the response stream open
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.putNextEntry(new ZipEntry("route.kml"));
+        writeKml(route, zip);
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+    }
+
+    /**
+     * Escapes XML markup characters and drops control characters that XML 1.0
+     * does not allow at all.
+     */
+    static void writeText(Writer writer, String text) throws IOException {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                default:
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                        writer.write(c);
+                    }
+            }
+        }
+    }
+
+    private static Writer open(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_CHARS);
+    }
+}
@@ -1,19 +1,171 @@
 package com.maywalk.routes.service;
 
+import java.time.LocalDateTime;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
 
 import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+import com.maywalk.routes.model.RouteStatus;
+import com.maywalk.routes.model.SurfaceType;
 
+/**
+ * Undo/redo stacks of immutable route versions. A new version shares every
+ * segment that did not change with the previous one, and a segment that only
+ * gained points shares its coordinate buffer, so recording an edit costs
+ * memory proportional to the edit. The undo stack is trimmed from the oldest
+ * end once it exceeds the configured depth or estimated size.
+ */
 class RouteHistory {
-    private final Deque<Route> undo = new ArrayDeque<>();
-    private final Deque<Route> redo = new ArrayDeque<>();
+    private static final int VERSION_OVERHEAD_BYTES = 64;
+    private static final int SEGMENT_OVERHEAD_BYTES = 48;
 
-    public Deque<Route> getUndo() {
-        return undo;
+    private final Deque<Version> undo = new ArrayDeque<>();
+    private final Deque<Version> redo = new ArrayDeque<>();
+    private final int maxDepth;
+    private final long maxBytes;
+    private long retainedBytes;
+
+    RouteHistory(int maxDepth, long maxBytes) {
+        this.maxDepth = Math.max(maxDepth, 2);
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized void record(Route route) {
+        Version previous = undo.peek();
+        Map<String, SegmentVersion> previousSegments = new HashMap<>();
+        if (previous != null) {
+            for (SegmentVersion segment : previous.segments) {
+                previousSegments.put(segment.id, segment);
+            }
+        }
+        long bytes = VERSION_OVERHEAD_BYTES;
+        List<SegmentVersion> segments = new ArrayList<>(route.getSegments().size());
+        for (RouteSegment segment : route.getSegments()) {
+            SegmentVersion old = previousSegments.get(segment.getId());
+            PointRun points = old == null ? PointRun.of(segment.getGeometry()) : old.points.extend(segment.getGeometry());
+            if (old != null && old.points == points && old.sameAttributes(segment)) {
+                segments.add(old);
+                continue;
+            }
+            segments.add(new SegmentVersion(segment, points));
+            bytes += SEGMENT_OVERHEAD_BYTES + (old != null && old.points == points ? 0 : (long) points.allocatedPoints() * PointRun.BYTES_PER_POINT);
+        }
+        push(undo, new Version(route, segments, bytes));
+        for (Version dropped : redo) {
+            retainedBytes -= dropped.bytes;
+        }
+        redo.clear();
+        trim();
+    }
+
+    /**
+     * Steps back to the version below the current one, or returns {@code null} if there is none.
+     */
+    synchronized Route undo() {
+        if (undo.size() < 2) {
+            return null;
+        }
+        Version current = undo.pop();
+        redo.push(current);
+        return undo.peek().toRoute();
+    }
+
+    synchronized Route redo() {
+        if (redo.isEmpty()) {
+            return null;
+        }
+        Version next = redo.pop();
+        undo.push(next);
+        return next.toRoute();
+    }
+
+    synchronized int depth() {
+        return undo.size() + redo.size();
+    }
+
+    synchronized long retainedBytes() {
+        return retainedBytes;
     }
 
-    public Deque<Route> getRedo() {
-        return redo;
+    private void push(Deque<Version> stack, Version version) {
+        stack.push(version);
+        retainedBytes += version.bytes;
+    }
+
+    private void trim() {
+        while (undo.size() > 2 && (undo.size() > maxDepth || retainedBytes > maxBytes)) {
+            retainedBytes -= undo.removeLast().bytes;
+        }
+    }
+
+    private static final class Version {
+        final UUID id;
+        final String name;
+        final RouteStatus status;
+        final LocalDateTime updatedAt;
+        final List<SegmentVersion> segments;
+        final long bytes;
+
+        Version(Route route, List<SegmentVersion> segments, long bytes) {
+            this.id = route.getId();
+            this.name = route.getName();
+            this.status = route.getStatus();
+            this.updatedAt = route.getUpdatedAt();
+            this.segments = segments;
+            this.bytes = bytes;
+        }
+
+        Route toRoute() {
+            Route copy = new Route();
+            copy.setId(id);
+            copy.setName(name);
+            copy.setStatus(status);
+            copy.setUpdatedAt(updatedAt);
+            List<RouteSegment> copySegments = new ArrayList<>(segments.size());
+            for (SegmentVersion segment : segments) {
+                copySegments.add(segment.toSegment());
+            }
+            copy.setSegments(copySegments);
+            return copy;
+        }
+    }
+
+    private static final class SegmentVersion {
+        final String id;
+        final String name;
+        final SurfaceType surfaceType;
+        final boolean preliminary;
+        final PointRun points;
+
+        SegmentVersion(RouteSegment segment, PointRun points) {
+            this.id = segment.getId();
+            this.name = segment.getName();
+            this.surfaceType = segment.getSurfaceType();
+            this.preliminary = segment.isPreliminary();
+            this.points = points;
+        }
+
+        boolean sameAttributes(RouteSegment segment) {
+            return Objects.equals(name, segment.getName())
+                    && surfaceType == segment.getSurfaceType()
+                    && preliminary == segment.isPreliminary();
+        }
+
+        RouteSegment toSegment() {
+            RouteSegment segment = new RouteSegment();
+            segment.setId(id);
+            segment.setName(name);
+            segment.setSurfaceType(surfaceType);
+            segment.setPreliminary(preliminary);
+            segment.setPoints(points.toGeometry());
+            return segment;
+        }
     }
 }
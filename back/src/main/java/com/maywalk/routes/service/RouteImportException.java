@@ -0,0 +1,16 @@
+package com.maywalk.routes.service;
+
+/**
+ * Uploaded GPX/KML could not be read as a track.
+ */
+public class RouteImportException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public RouteImportException(String message) {
+        super(message);
+    }
+
+    public RouteImportException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,227 @@
+package com.maywalk.routes.service;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.RouteSegment;
+import com.maywalk.routes.model.SurfaceType;
+
+/**
+ * Pull-parses GPX/KML with StAX, appending coordinates straight into packed
+ * segment storage, so importing a large file never builds a DOM or a second
+ * copy of the document. Every GPX {@code <trkseg>} and every KML line
+ * {@code <coordinates>} becomes its own segment.
+ */
+final class RouteImportReader {
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private RouteImportReader() {
+    }
+
+    static List<RouteSegment> readGpx(InputStream in, String defaultName, boolean preliminary) {
+        List<RouteSegment> segments = new ArrayList<>();
+        XMLStreamReader reader = open(in, "GPX");
+        try {
+            String trackName = null;
+            int trackSegments = 0;
+            PackedGeometry points = null;
+            boolean inPoint = false;
+            boolean inTrack = false;
+            double lat = 0;
+            double lng = 0;
+            boolean node = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if ("trk".equals(element)) {
+                        inTrack = true;
+                        trackName = null;
+                        trackSegments = 0;
+                    } else if ("name".equals(element) && inTrack && points == null) {
+                        trackName = reader.getElementText().trim();
+                    } else if ("trkseg".equals(element)) {
+                        points = new PackedGeometry();
+                    } else if ("trkpt".equals(element) && points != null) {
+                        lat = coordinate(reader, "lat", -90, 90);
+                        lng = coordinate(reader, "lon", -180, 180);
+                        node = false;
+                        inPoint = true;
+                    } else if ("type".equals(element) && inPoint) {
+                        node = "node".equals(reader.getElementText().trim());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if ("trkpt".equals(element) && inPoint) {
+                        points.append(lat, lng, node);
+                        inPoint = false;
+                    } else if ("trkseg".equals(element) && points != null) {
+                        if (!points.isEmpty()) {
+                            trackSegments++;
+                            String name = trackName == null || trackName.isEmpty() ? defaultName : trackName;
+                            segments.add(segment(trackSegments > 1 ? name + " " + trackSegments : name, preliminary, points));
+                        }
+                        points = null;
+                    } else if ("trk".equals(element)) {
+                        inTrack = false;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new RouteImportException("Malformed GPX: " + e.getMessage(), e);
+        } finally {
+            close(reader);
+        }
+        if (segments.isEmpty()) {
+            throw new RouteImportException("GPX contains no track points");
+        }
+        return segments;
+    }
+
+    static List<RouteSegment> readKml(InputStream in, String defaultName, boolean preliminary) {
+        List<RouteSegment> segments = new ArrayList<>();
+        XMLStreamReader reader = open(in, "KML");
+        try {
+            String placemarkName = null;
+            boolean inPlacemark = false;
+            boolean inPointGeometry = false;
+            PackedGeometry points = null;
+            StringBuilder tuple = new StringBuilder(64);
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if ("Placemark".equals(element)) {
+                        inPlacemark = true;
+                        placemarkName = null;
+                    } else if ("name".equals(element) && inPlacemark) {
+                        placemarkName = reader.getElementText().trim();
+                    } else if ("Point".equals(element)) {
+                        inPointGeometry = true;
+                    } else if ("coordinates".equals(element) && !inPointGeometry) {
+                        points = new PackedGeometry();
+                        tuple.setLength(0);
+                    }
+                } else if (points != null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                    // Tuples may be split across several character events, so tokenize incrementally
+                    char[] text = reader.getTextCharacters();
+                    int end = reader.getTextStart() + reader.getTextLength();
+                    for (int i = reader.getTextStart(); i < end; i++) {
+                        char c = text[i];
+                        if (Character.isWhitespace(c)) {
+                            appendTuple(reader, tuple, points);
+                        } else {
+                            tuple.append(c);
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if ("coordinates".equals(element) && points != null) {
+                        appendTuple(reader, tuple, points);
+                        if (!points.isEmpty()) {
+                            String name = placemarkName == null || placemarkName.isEmpty() ? defaultName : placemarkName;
+                            segments.add(segment(name, preliminary, points));
+                        }
+                        points = null;
+                    } else if ("Point".equals(element)) {
+                        inPointGeometry = false;
+                    } else if ("Placemark".equals(element)) {
+                        inPlacemark = false;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new RouteImportException("Malformed KML: " + e.getMessage(), e);
+        } finally {
+            close(reader);
+        }
+        if (segments.isEmpty()) {
+            throw new RouteImportException("KML contains no line coordinates");
+        }
+        return segments;
+    }
+
+    private static void appendTuple(XMLStreamReader reader, StringBuilder tuple, PackedGeometry points) {
+        if (tuple.length() == 0) {
+            return;
+        }
+        int first = indexOf(tuple, ',', 0);
+        int second = first < 0 ? -1 : indexOf(tuple, ',', first + 1);
+        if (first < 0) {
+            throw new RouteImportException("Bad KML coordinate '" + tuple + "' at line " + reader.getLocation().getLineNumber());
+        }
+        try {
+            double lng = Double.parseDouble(tuple.substring(0, first));
+            double lat = Double.parseDouble(tuple.substring(first + 1, second < 0 ? tuple.length() : second));
+            if (!Double.isFinite(lat) || !Double.isFinite(lng) || lat < -90 || lat > 90 || lng < -180 || lng > 180) {
+                throw new NumberFormatException();
+            }
+            points.append(lat, lng, false);
+        } catch (NumberFormatException e) {
+            throw new RouteImportException("Bad KML coordinate '" + tuple + "' at line " + reader.getLocation().getLineNumber());
+        }
+        tuple.setLength(0);
+    }
+
+    private static double coordinate(XMLStreamReader reader, String attribute, double min, double max) {
+        String value = reader.getAttributeValue(null, attribute);
+        try {
+            double parsed = Double.parseDouble(value);
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NullPointerException | NumberFormatException ignored) {
+            // reported below
+        }
+        throw new RouteImportException("Bad " + attribute + " '" + value + "' at line " + reader.getLocation().getLineNumber());
+    }
+
+    private static RouteSegment segment(String name, boolean preliminary, PackedGeometry points) {
+        RouteSegment segment = new RouteSegment();
+        segment.setName(name);
+        segment.setSurfaceType(SurfaceType.UNKNOWN);
+        segment.setPreliminary(preliminary);
+        segment.setPoints(points);
+        return segment;
+    }
+
+    private static int indexOf(StringBuilder text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static XMLStreamReader open(InputStream in, String format) {
+        try {
+            return FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new RouteImportException("Malformed " + format + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        try {
+            reader.close();
+        } catch (XMLStreamException ignored) {
+            // nothing left to release
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // Uploads are untrusted: no DTDs, no external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
@@ -0,0 +1,16 @@
+package com.maywalk.routes.service;
+
+import com.maywalk.routes.model.Route;
+
+/**
+ * Told about every snapshot {@link RouteService} publishes, on the writing thread
+ * and under the route's write lock, so implementations must be quick.
+ */
+interface RouteListener {
+    /**
+     * {@code next} replaced {@code previous}, which is {@code null} for a new route.
+     */
+    void published(Route previous, Route next);
+
+    void cleared();
+}
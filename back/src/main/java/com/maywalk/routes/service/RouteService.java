@@ -1,42 +1,173 @@
 package com.maywalk.routes.service;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 import com.maywalk.routes.dto.NearbyResult;
 import com.maywalk.routes.dto.RouteMetrics;
+import com.maywalk.routes.dto.RouteSummary;
+import com.maywalk.routes.dto.RouteSummaryPage;
+import com.maywalk.routes.model.BoundingBox;
 import com.maywalk.routes.model.GeoPoint;
+import com.maywalk.routes.model.PackedGeometry;
 import com.maywalk.routes.model.Route;
 import com.maywalk.routes.model.RouteSegment;
 import com.maywalk.routes.model.RouteStatus;
 import com.maywalk.routes.model.SurfaceType;
+import com.maywalk.routes.store.RouteStore;
 import com.maywalk.routes.util.GeoUtils;
 
+/**
+ * Routes are published as immutable snapshots: a stored {@link Route}, its segments and
+ * their geometry are never modified again. Writers of one route are serialized by a
+ * per-route lock, build the next snapshot and swap it into the map, so readers never
+ * block and never see a half-applied edit. Every snapshot gets a new version that
+ * conditional writers pass back to detect lost updates.
+ */
 @Service
-public class RouteService {
+public class RouteService implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(RouteService.class);
+    private static final double SURFACE_PADDING_DEGREES = 0.0015; // ~150m
+    private static final double MATCH_METERS = 60;
+    private static final int MAX_SUMMARY_PAGE = 200;
+    private static final int MAX_NEARBY = 50;
+    private static final int MAX_SNAP_POINTS = 100_000;
+    private static final int SNAP_CHUNK = 2048;
     private final Map<UUID, Route> routes = new ConcurrentHashMap<>();
+    // Imported routes that are journalled but not yet published
+    private final Map<UUID, Route> importing = new ConcurrentHashMap<>();
     private final Map<UUID, RouteHistory> histories = new ConcurrentHashMap<>();
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<UUID, Object> writeLocks = new ConcurrentHashMap<>();
+    private final PointIndex pointIndex = new PointIndex(0.001); // ~110m cells
+    private final Map<UUID, MetricsMemo> metricsMemo = new ConcurrentHashMap<>();
+    private final RouteCatalog catalog = new RouteCatalog();
+    private final SegmentIndex segmentIndex = new SegmentIndex(0.01); // ~1km cells
+    private final List<RouteListener> listeners = new CopyOnWriteArrayList<>();
+    // Seeded from the clock so a version handed out before a restart is not reused after it
+    private final AtomicLong versions = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final SurfaceCache surfaceCache;
+    private final SurfaceSource surfaceSource;
+
+    private final int historyDepth;
+    private final long historyBytes;
+    private final long surfaceDeadlineNanos;
+    private final AsyncTaskExecutor classifier;
+    private final ThreadPoolTaskExecutor snapper;
+
+    private final RouteStore store;
+
+    private final MeterRegistry registry;
+    private final Timer saveTimer;
+    private final Timer addPointTimer;
+    private final Timer nearestTimer;
+    private final Timer snapTimer;
+    private final Timer metricsTimer;
+    private final Timer classifyTimer;
+    private final Timer undoTimer;
+    private final Timer redoTimer;
+    private final Timer importGpxTimer;
+    private final Timer importKmlTimer;
+    private final Timer importBatchTimer;
+    private final Timer exportGpxTimer;
+    private final Timer exportKmlTimer;
+    private final Timer exportKmzTimer;
+    private final Timer summariesTimer;
+    private final Timer withinTimer;
+    private final Counter memoHits;
+    private final Counter memoMisses;
+    private final Counter importFailures;
+
+    public RouteService(SurfaceCache surfaceCache, SurfaceSource surfaceSource, RouteStore store, MeterRegistry registry,
+                        @Value("${maywalk.history.max-depth:100}") int historyDepth,
+                        @Value("${maywalk.history.max-size:8MB}") DataSize historySize,
+                        @Value("${maywalk.surface.deadline:4s}") Duration surfaceDeadline,
+                        @Value("${maywalk.surface.parallelism:0}") int surfaceParallelism,
+                        @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.surfaceCache = surfaceCache;
+        this.surfaceSource = surfaceSource;
+        this.store = store;
+        this.historyDepth = historyDepth;
+        this.historyBytes = historySize.toBytes();
+        this.surfaceDeadlineNanos = surfaceDeadline.toNanos();
+        // With virtual threads a segment waiting on Overpass costs no pool slot; the Overpass bulkhead still caps calls
+        AsyncTaskExecutor virtual = VirtualThreads.executor(virtualThreads, "surface-classifier-");
+        this.classifier = virtual != null ? virtual : WorkerPools.fixed(surfaceParallelism, "surface-classifier-");
+        // Snapping is CPU-bound, so it gets one platform thread per core whatever the thread mode
+        this.snapper = WorkerPools.fixed(0, "snapper-");
+        this.registry = registry;
+        this.saveTimer = operationTimer("save");
+        this.addPointTimer = operationTimer("addPoint");
+        this.nearestTimer = operationTimer("findNearest");
+        this.snapTimer = operationTimer("snap");
+        this.metricsTimer = operationTimer("buildMetrics");
+        this.classifyTimer = operationTimer("classifySurface");
+        this.undoTimer = operationTimer("undo");
+        this.redoTimer = operationTimer("redo");
+        this.importGpxTimer = operationTimer("importGpx");
+        this.importKmlTimer = operationTimer("importKml");
+        this.importBatchTimer = operationTimer("importBatch");
+        this.exportGpxTimer = operationTimer("exportGpx");
+        this.exportKmlTimer = operationTimer("exportKml");
+        this.exportKmzTimer = operationTimer("exportKmz");
+        this.summariesTimer = operationTimer("summaries");
+        this.withinTimer = operationTimer("within");
+        this.memoHits = registry.counter("maywalk.route.metrics.memo", "result", "hit");
+        this.memoMisses = registry.counter("maywalk.route.metrics.memo", "result", "miss");
+        this.importFailures = registry.counter("maywalk.route.import.failures");
+        Gauge.builder("maywalk.routes.stored", routes, Map::size)
+                .description("Routes held in memory").register(registry);
+        Gauge.builder("maywalk.routes.points", this, RouteService::pointCount)
+                .description("Track points held in memory").register(registry);
+        Gauge.builder("maywalk.history.versions", this, RouteService::historyVersions)
+                .description("Undo/redo versions kept across all routes").register(registry);
+        Gauge.builder("maywalk.history.size", this, RouteService::historyRetainedBytes)
+                .description("Estimated memory retained by undo/redo history").baseUnit("bytes").register(registry);
+        for (Route route : store.load()) {
+            publish(route);
+            pointIndex.index(route);
+        }
+        store.snapshotSource(this::snapshotRoutes);
+    }
 
     public List<Route> findAll() {
         return new ArrayList<>(routes.values());
@@ -46,18 +177,118 @@ public class RouteService {
         return Optional.ofNullable(routes.get(id));
     }
 
+    /**
+     * One page of route summaries, newest change first unless {@code ascending}. Pass the
+     * previous page's {@code nextCursor} to continue; {@code name} keeps routes whose name
+     * contains it, ignoring case.
+     *
+     * @throws IllegalArgumentException if {@code cursor} is malformed
+     */
+    public RouteSummaryPage summaries(String cursor, int limit, String name, boolean ascending) {
+        int size = Math.max(1, Math.min(limit, MAX_SUMMARY_PAGE));
+        return summariesTimer.record(() -> catalog.page(cursor, size, name, ascending));
+    }
+
+    /**
+     * Stores {@code route} as the current snapshot of its id, unconditionally; the
+     * route must not be modified afterwards.
+     */
     public Route save(Route route) {
-        route.setUpdatedAt(LocalDateTime.now());
-        routes.put(route.getId(), route);
-        pushSnapshot(route);
-        return route;
+        return saveTimer.record(() -> persist(route));
+    }
+
+    /**
+     * Replaces name, status and segments of a stored route. With a non-null
+     * {@code expectedVersion} the write only happens if the route is still at that version.
+     *
+     * @throws RouteVersionConflictException if the route has moved past {@code expectedVersion}
+     */
+    public Optional<Route> update(UUID id, Long expectedVersion, String name, RouteStatus status, List<RouteSegment> segments) {
+        return saveTimer.record(() -> replace(id, expectedVersion, current -> {
+            Route next = new Route(name, status, segments);
+            next.setId(id);
+            return next;
+        }));
+    }
+
+    public Optional<Route> changeStatus(UUID id, Long expectedVersion, RouteStatus status) {
+        return saveTimer.record(() -> replace(id, expectedVersion, current -> {
+            Route next = nextSnapshot(current);
+            next.setStatus(status);
+            return next;
+        }));
+    }
+
+    private Optional<Route> replace(UUID id, Long expectedVersion, UnaryOperator<Route> change) {
+        synchronized (writeLock(id)) {
+            Route current = routes.get(id);
+            if (current == null) {
+                return Optional.empty();
+            }
+            checkVersion(current, expectedVersion);
+            return Optional.of(persist(change.apply(current)));
+        }
+    }
+
+    private Route persist(Route route) {
+        synchronized (writeLock(route.getId())) {
+            Route current = routes.get(route.getId());
+            route.setUpdatedAt(LocalDateTime.now());
+            publish(route);
+            pointIndex.index(route);
+            store.save(route);
+            recordHistory(current, route);
+            return route;
+        }
     }
 
     public void deleteAll() {
         routes.clear();
+        catalog.clear();
+        segmentIndex.clear();
+        histories.clear();
+        pointIndex.clear();
+        metricsMemo.clear();
+        store.deleteAll();
+        listeners.forEach(RouteListener::cleared);
     }
 
+    /**
+     * Metrics of a stored route are memoized per route version, so repeated reads of an
+     * unchanged route cost a map lookup; unsaved routes (version 0) are always computed.
+     */
     public RouteMetrics buildMetrics(Route route) {
+        return metricsTimer.record(() -> memoizedMetrics(route));
+    }
+
+    /**
+     * Whether the metrics of this route version are memoized and final, so a client's
+     * copy of them can be revalidated without computing anything.
+     */
+    public boolean metricsSettled(Route route) {
+        MetricsMemo memo = route.getVersion() == 0 ? null : metricsMemo.get(route.getId());
+        return memo != null && memo.version == route.getVersion();
+    }
+
+    private RouteMetrics memoizedMetrics(Route route) {
+        long version = route.getVersion();
+        MetricsMemo previous = version == 0 ? null : metricsMemo.get(route.getId());
+        if (previous != null && previous.version == version) {
+            memoHits.increment();
+            return previous.metrics;
+        }
+        memoMisses.increment();
+        Map<PackedGeometry, SegmentSurface> classified = new IdentityHashMap<>();
+        RouteMetrics metrics = computeMetrics(route, previous, classified);
+        // Results built on a failed surface lookup are not kept, so the next read retries it
+        if (version != 0 && !classified.containsValue(null)) {
+            MetricsMemo memo = new MetricsMemo(version, metrics, classified);
+            metricsMemo.merge(route.getId(), memo, (old, fresh) -> fresh.version >= old.version ? fresh : old);
+        }
+        return metrics;
+    }
+
+    private RouteMetrics computeMetrics(Route route, MetricsMemo previous, Map<PackedGeometry, SegmentSurface> classified) {
         RouteMetrics metrics = new RouteMetrics();
         Map<SurfaceType, Double> bySurface = metrics.getBySurface();
         // Ensure all coverage categories are present even if zero
@@ -79,7 +310,7 @@ public class RouteService {
             }
         }
         if (finalStatus) {
-            Map<SurfaceType, Double> detected = detectSurfaceTotals(route.getSegments());
+            Map<SurfaceType, Double> detected = detectSurfaceTotals(route.getSegments(), previous, classified);
             boolean hasKnown = detected.entrySet().stream()
                     .anyMatch(e -> e.getKey() != SurfaceType.UNKNOWN && e.getValue() > 0);
             if (!hasKnown) {
@@ -101,116 +332,144 @@ public class RouteService {
         return metrics;
     }
 
-    private Map<SurfaceType, Double> detectSurfaceTotals(List<RouteSegment> segments) {
+    /**
+     * Segments whose geometry is unchanged since {@code previous} reuse its classification;
+     * the rest go through the surface cache and then the surface source. Every outcome is
+     * recorded in {@code classified}, with {@code null} for a failed lookup.
+     */
+    private Map<SurfaceType, Double> detectSurfaceTotals(List<RouteSegment> segments, MetricsMemo previous,
+                                                         Map<PackedGeometry, SegmentSurface> classified) {
         Map<SurfaceType, Double> totals = new ConcurrentHashMap<>();
         for (SurfaceType type : SurfaceType.values()) {
             totals.put(type, 0d);
         }
-        for (RouteSegment segment : segments) {
-            SurfaceType type = classifySegmentSurface(segment);
-            double km = distance(segment.getPoints()) / 1000d;
-            totals.merge(type, km, Double::sum);
+        SurfaceType[] types = new SurfaceType[segments.size()];
+        String[] keys = new String[segments.size()];
+        int[] stamps = new int[segments.size()];
+        List<BoundingBox> pending = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            PackedGeometry points = segments.get(i).getGeometry();
+            stamps[i] = points.stamp();
+            if (points.size() < 2) {
+                types[i] = SurfaceType.UNKNOWN;
+                continue;
+            }
+            SegmentSurface known = previous == null ? null : previous.surfaces.get(points);
+            if (known != null && known.stamp == stamps[i]) {
+                types[i] = known.type;
+                classified.put(points, known);
+                continue;
+            }
+            keys[i] = SurfaceCache.key(points);
+            types[i] = surfaceCache.get(keys[i]);
+            if (types[i] == null) {
+                pending.add(points.bounds().pad(SURFACE_PADDING_DEGREES));
+            }
         }
-        return totals;
-    }
-
-    private SurfaceType classifySegmentSurface(RouteSegment segment) {
-        if (segment.getPoints().size() < 2) {
-            return SurfaceType.UNKNOWN;
+        if (!pending.isEmpty()) {
+            long deadline = System.nanoTime() + surfaceDeadlineNanos;
+            // Download every tile the unclassified segments need in as few queries as possible
+            surfaceSource.prefetch(pending, deadline);
+            classifyMisses(segments, types, keys, deadline);
         }
-        try {
-            List<GeoPoint> geometry = segment.getPoints();
-            double minLat = geometry.stream().mapToDouble(GeoPoint::getLat).min().orElse(0);
-            double maxLat = geometry.stream().mapToDouble(GeoPoint::getLat).max().orElse(0);
-            double minLng = geometry.stream().mapToDouble(GeoPoint::getLng).min().orElse(0);
-            double maxLng = geometry.stream().mapToDouble(GeoPoint::getLng).max().orElse(0);
-            double padding = 0.0015; // ~150m
-            String query = String.format("[out:json][timeout:25];(way[\"railway\"](%f,%f,%f,%f);way[\"highway\"](%f,%f,%f,%f););out tags geom;",
-                    minLat - padding, minLng - padding, maxLat + padding, maxLng + padding,
-                    minLat - padding, minLng - padding, maxLat + padding, maxLng + padding);
-            JsonNode response = fetchOverpass(query);
-            if (response == null || !response.has("elements")) {
-                return SurfaceType.UNKNOWN;
-            }
-            double bestDistance = Double.MAX_VALUE;
-            SurfaceType bestType = SurfaceType.UNKNOWN;
-            for (JsonNode element : response.get("elements")) {
-                JsonNode tagsNode = element.get("tags");
-                SurfaceType type = SurfaceType.UNKNOWN;
-                if (tagsNode != null) {
-                    type = classifyTags(tagsNode);
-                }
-                if (type == SurfaceType.UNKNOWN) {
-                    continue;
+        for (int i = 0; i < segments.size(); i++) {
+            RouteSegment segment = segments.get(i);
+            SurfaceType type = types[i];
+            if (keys[i] != null) {
+                classified.put(segment.getGeometry(), type == null ? null : new SegmentSurface(stamps[i], type));
+                if (type == null) {
+                    type = SurfaceType.UNKNOWN;
                 }
-                List<GeoPoint> wayGeometry = parseGeometry(element.get("geometry"));
-                double distance = minDistance(geometry, wayGeometry);
-                if (distance < bestDistance) {
-                    bestDistance = distance;
-                    bestType = type;
-                }
-            }
-            if (bestDistance < 60) { // meters
-                return bestType;
             }
-        } catch (Exception ignored) {
+            double km = distance(segment.getPoints()) / 1000d;
+            totals.merge(type, km, Double::sum);
         }
-        return SurfaceType.UNKNOWN;
+        return totals;
     }
 
-    private SurfaceType classifyTags(JsonNode tags) {
-        if (tags.has("railway")) {
-            return SurfaceType.RAILWAY;
+    /**
+     * Classifies the segments that have a cache key but no type yet, fanned out over the
+     * classifier executor (a saturated platform pool makes the caller run the task itself).
+     * Anything not finished by the deadline stays {@code null} and is reported as UNKNOWN
+     * without caching.
+     */
+    private void classifyMisses(List<RouteSegment> segments, SurfaceType[] types, String[] keys, long deadline) {
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            if (keys[i] != null && types[i] == null) {
+                misses.add(i);
+            }
         }
-        String surface = tags.has("surface") ? tags.get("surface").asText("").toLowerCase() : "";
-        String highway = tags.has("highway") ? tags.get("highway").asText("").toLowerCase() : "";
-        if (surface.contains("asphalt") || surface.contains("paved")) {
-            return SurfaceType.ASPHALT;
+        if (misses.size() == 1) {
+            int i = misses.get(0);
+            types[i] = classify(segments.get(i), keys[i], deadline);
+            return;
         }
-        if (highway.equals("track") || surface.contains("ground") || surface.contains("dirt") || surface.contains("gravel")) {
-            return SurfaceType.FIELD_PATH;
+        Map<Integer, Future<SurfaceType>> futures = new LinkedHashMap<>();
+        for (int i : misses) {
+            RouteSegment segment = segments.get(i);
+            String key = keys[i];
+            futures.put(i, classifier.submit(() -> classify(segment, key, deadline)));
         }
-        if (highway.equals("path") || highway.equals("footway") || highway.equals("bridleway") || highway.equals("cycleway")) {
-            return SurfaceType.FOREST_TRAIL;
+        for (Map.Entry<Integer, Future<SurfaceType>> entry : futures.entrySet()) {
+            Future<SurfaceType> future = entry.getValue();
+            try {
+                types[entry.getKey()] = future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                classificationOutcome("timeout");
+            } catch (ExecutionException e) {
+                classificationOutcome("error");
+                log.warn("Surface classification failed", e.getCause());
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+            }
         }
-        return SurfaceType.UNKNOWN;
     }
 
-    private List<GeoPoint> parseGeometry(JsonNode geometryNode) {
-        List<GeoPoint> points = new ArrayList<>();
-        if (geometryNode == null || !geometryNode.isArray()) {
-            return points;
+    private SurfaceType classify(RouteSegment segment, String key, long deadline) {
+        if (deadline - System.nanoTime() <= 0) {
+            classificationOutcome("timeout");
+            return null;
         }
-        for (JsonNode node : geometryNode) {
-            if (node.has("lat") && node.has("lon")) {
-                points.add(new GeoPoint(node.get("lat").asDouble(), node.get("lon").asDouble(), false));
-            }
+        SurfaceType type = classifyTimer.record(() -> classifySegmentSurface(segment, deadline));
+        classificationOutcome(type == null ? "unavailable" : "classified");
+        if (type != null) {
+            surfaceCache.put(key, type);
         }
-        return points;
+        return type;
     }
 
-    private double minDistance(List<GeoPoint> segmentPoints, List<GeoPoint> wayPoints) {
-        double best = Double.MAX_VALUE;
-        for (GeoPoint a : segmentPoints) {
-            for (GeoPoint b : wayPoints) {
-                best = Math.min(best, GeoUtils.distanceMeters(a, b));
-            }
-        }
-        return best;
+    private void classificationOutcome(String outcome) {
+        registry.counter("maywalk.surface.classifications", "outcome", outcome).increment();
     }
 
-    private JsonNode fetchOverpass(String query) throws IOException, InterruptedException {
-        var client = java.net.http.HttpClient.newHttpClient();
-        var request = java.net.http.HttpRequest.newBuilder()
-                .uri(java.net.URI.create("https://overpass-api.de/api/interpreter"))
-                .header("Content-Type", "text/plain")
-                .POST(java.net.http.HttpRequest.BodyPublishers.ofString(query))
-                .build();
-        var response = client.send(request, java.net.http.HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() >= 200 && response.statusCode() < 300) {
-            return mapper.readTree(response.body());
+    /**
+     * Matches the segment against nearby OSM ways; {@code null} means the ways could not be
+     * downloaded in time and the result must not be cached.
+     */
+    private SurfaceType classifySegmentSurface(RouteSegment segment, long deadline) {
+        PackedGeometry geometry = segment.getGeometry();
+        List<OsmWay> ways = surfaceSource.ways(geometry.bounds().pad(SURFACE_PADDING_DEGREES), deadline);
+        if (ways == null) {
+            return null;
         }
-        return null;
+        // Closest way edge to any track point wins; the search radius shrinks with every match
+        WayEdgeIndex index = new WayEdgeIndex(ways);
+        double bestDistance = MATCH_METERS;
+        SurfaceType bestType = SurfaceType.UNKNOWN;
+        for (int i = 0; i < geometry.size(); i++) {
+            WayEdgeIndex.Match match = index.nearest(geometry.lat(i), geometry.lng(i), bestDistance);
+            if (match != null) {
+                bestDistance = match.distanceMeters;
+                bestType = match.way.getType();
+                if (bestDistance == 0) {
+                    break; // the track touches a way, nothing can be closer
+                }
+            }
+        }
+        return bestType;
     }
 
     private double estimateMinutes(double totalKm, Map<SurfaceType, Double> bySurfaceKm, boolean useSurface) {
@@ -237,44 +496,211 @@ public class RouteService {
     }
 
     public double distance(List<GeoPoint> points) {
+        if (points instanceof PackedGeometry) {
+            return ((PackedGeometry) points).lengthMeters();
+        }
         double dist = 0;
         for (int i = 1; i < points.size(); i++) {
-            dist += GeoUtils.distanceMeters(points.get(i - 1), points.get(i));
+            GeoPoint from = points.get(i - 1);
+            GeoPoint to = points.get(i);
+            dist += GeoUtils.fastDistanceMeters(from.getLat(), from.getLng(), to.getLat(), to.getLng());
         }
         return dist;
     }
 
-    public Optional<GeoPoint> addPoint(UUID routeId, String segmentId, GeoPoint point) {
-        Route route = routes.get(routeId);
-        if (route == null) {
+    /**
+     * Appends a point to one segment and returns the route snapshot that holds it;
+     * the other segments are shared with the previous snapshot.
+     *
+     * @throws RouteVersionConflictException if the route has moved past a non-null {@code expectedVersion}
+     */
+    public Optional<Route> addPoint(UUID routeId, String segmentId, GeoPoint point, Long expectedVersion) {
+        return addPointTimer.record(() -> appendPoint(routeId, segmentId, point, expectedVersion));
+    }
+
+    private Optional<Route> appendPoint(UUID routeId, String segmentId, GeoPoint point, Long expectedVersion) {
+        synchronized (writeLock(routeId)) {
+            Route current = routes.get(routeId);
+            if (current == null) {
+                return Optional.empty();
+            }
+            checkVersion(current, expectedVersion);
+            List<RouteSegment> segments = current.getSegments();
+            for (int i = 0; i < segments.size(); i++) {
+                RouteSegment segment = segments.get(i);
+                if (segment.getId().equals(segmentId)) {
+                    Route next = nextSnapshot(current);
+                    next.getSegments().set(i, withPoint(segment, point));
+                    next.setUpdatedAt(LocalDateTime.now());
+                    PackedGeometry geometry = segment.getGeometry();
+                    // Visible before journalled, so a snapshot taken in between already holds the point
+                    publish(next);
+                    store.appendPoint(routeId, segmentId, geometry.size(), point);
+                    pointIndex.add(routeId, geometry.isEmpty() ? null : geometry.get(geometry.size() - 1), point);
+                    recordHistory(current, next);
+                    return Optional.of(next);
+                }
+            }
             return Optional.empty();
         }
-        for (RouteSegment segment : route.getSegments()) {
-            if (segment.getId().equals(segmentId)) {
-                pushSnapshot(route);
-                segment.getPoints().add(point);
-                route.setUpdatedAt(LocalDateTime.now());
-                return Optional.of(point);
+    }
+
+    public Optional<NearbyResult> findNearest(GeoPoint target, double thresholdMeters) {
+        return findNearby(target, thresholdMeters, 1, null, null, false).stream().findFirst();
+    }
+
+    /**
+     * Up to {@code k} routes within {@code thresholdMeters} of {@code target}, closest
+     * first, with the closest point of each. {@code status} (if not null) keeps routes in
+     * that status and {@code excludeRouteId} (if not null) drops one route, so a route
+     * being edited does not snap to itself. With {@code snapToEdge} the point is the
+     * projection onto the nearest track edge instead of the nearest stored point.
+     */
+    public List<NearbyResult> findNearby(GeoPoint target, double thresholdMeters, int k, RouteStatus status,
+                                         UUID excludeRouteId, boolean snapToEdge) {
+        int limit = Math.max(1, Math.min(k, MAX_NEARBY));
+        return nearestTimer.record(() -> nearby(target, thresholdMeters, limit, status, excludeRouteId, snapToEdge));
+    }
+
+    private List<NearbyResult> nearby(GeoPoint target, double thresholdMeters, int k, RouteStatus status,
+                                      UUID excludeRouteId, boolean snapToEdge) {
+        List<PointIndex.Hit> hits = pointIndex.nearest(target, thresholdMeters, k, snapToEdge,
+                routeFilter(status, excludeRouteId));
+        List<NearbyResult> results = new ArrayList<>(hits.size());
+        for (PointIndex.Hit hit : hits) {
+            NearbyResult result = nearbyResult(hit);
+            if (result != null) {
+                results.add(result);
             }
         }
-        return Optional.empty();
+        return results;
     }
 
-    public Optional<NearbyResult> findNearest(GeoPoint target, double thresholdMeters) {
-        NearbyResult nearest = null;
-        double best = thresholdMeters;
-        for (Route route : routes.values()) {
-            for (RouteSegment segment : route.getSegments()) {
-                for (GeoPoint point : segment.getPoints()) {
-                    double dist = GeoUtils.distanceMeters(target, point);
-                    if (dist <= best) {
-                        best = dist;
-                        nearest = new com.maywalk.routes.dto.NearbyResult(route, point, dist);
+    /**
+     * Snaps every point of {@code points} to the archive in one pass, with the filters of
+     * {@link #findNearby}. Long inputs are split into chunks searched in parallel; within
+     * a chunk each search starts where the previous point's hit was.
+     *
+     * @return one result per point, in order, {@code null} where no route is in range
+     * @throws IllegalArgumentException if there are more than {@value #MAX_SNAP_POINTS} points
+     */
+    public List<NearbyResult> snap(PackedGeometry points, double thresholdMeters, RouteStatus status,
+                                   UUID excludeRouteId, boolean snapToEdge) {
+        if (points.size() > MAX_SNAP_POINTS) {
+            throw new IllegalArgumentException("At most " + MAX_SNAP_POINTS + " points can be snapped at once");
+        }
+        return snapTimer.record(() -> {
+            Predicate<UUID> accept = routeFilter(status, excludeRouteId);
+            int size = points.size();
+            List<Future<List<PointIndex.Hit>>> chunks = new ArrayList<>();
+            for (int from = SNAP_CHUNK; from < size; from += SNAP_CHUNK) {
+                int start = from;
+                int end = Math.min(size, from + SNAP_CHUNK);
+                chunks.add(snapper.submit(() -> pointIndex.snap(points, start, end, thresholdMeters, snapToEdge, accept)));
+            }
+            List<PointIndex.Hit> hits = new ArrayList<>(size);
+            hits.addAll(pointIndex.snap(points, 0, Math.min(size, SNAP_CHUNK), thresholdMeters, snapToEdge, accept));
+            for (Future<List<PointIndex.Hit>> chunk : chunks) {
+                hits.addAll(await(chunk));
+            }
+            List<NearbyResult> results = new ArrayList<>(size);
+            for (PointIndex.Hit hit : hits) {
+                results.add(hit == null ? null : nearbyResult(hit));
+            }
+            return results;
+        });
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while snapping", e);
+        }
+    }
+
+    private Predicate<UUID> routeFilter(RouteStatus status, UUID excludeRouteId) {
+        return id -> {
+            if (id.equals(excludeRouteId)) {
+                return false;
+            }
+            Route route = routes.get(id);
+            return route != null && (status == null || route.getStatus() == status);
+        };
+    }
+
+    private NearbyResult nearbyResult(PointIndex.Hit hit) {
+        Route route = routes.get(hit.routeId);
+        return route == null ? null : new NearbyResult(route, hit.point, hit.distanceMeters);
+    }
+
+    /**
+     * Routes with a segment crossing {@code box}, each holding only those segments,
+     * simplified to {@code toleranceMeters} (0 for full detail). With {@code clip} every
+     * segment is cut down to the edges that touch the box, which can split it into
+     * several pieces sharing the segment id.
+     */
+    public List<Route> within(BoundingBox box, boolean clip, double toleranceMeters) {
+        return withinTimer.record(() -> {
+            List<Route> found = new ArrayList<>();
+            for (Map.Entry<UUID, Set<String>> hit : segmentIndex.within(box).entrySet()) {
+                Route route = routes.get(hit.getKey());
+                if (route == null) {
+                    continue;
+                }
+                List<RouteSegment> segments = new ArrayList<>();
+                for (RouteSegment segment : route.getSegments()) {
+                    // The snapshot may be newer than the index entry, so check its own bounds
+                    if (!hit.getValue().contains(segment.getId()) || segment.getGeometry().isEmpty()
+                            || !segment.getGeometry().bounds().intersects(box)) {
+                        continue;
+                    }
+                    segment = simplified(segment, toleranceMeters);
+                    if (clip) {
+                        clip(segment, box, segments);
+                    } else {
+                        segments.add(segment);
                     }
                 }
+                if (!segments.isEmpty()) {
+                    Route view = new Route(route.getName(), route.getStatus(), segments);
+                    view.setId(route.getId());
+                    view.setUpdatedAt(route.getUpdatedAt());
+                    view.setVersion(route.getVersion());
+                    found.add(view);
+                }
             }
+            return found;
+        });
+    }
+
+    /**
+     * View of {@code route} for drawing with every segment simplified to {@code toleranceMeters};
+     * node points are kept and the route itself is returned when nothing would be dropped.
+     */
+    public Route simplified(Route route, double toleranceMeters) {
+        List<RouteSegment> segments = new ArrayList<>(route.getSegments().size());
+        boolean changed = false;
+        for (RouteSegment segment : route.getSegments()) {
+            RouteSegment simplified = simplified(segment, toleranceMeters);
+            changed |= simplified != segment;
+            segments.add(simplified);
         }
-        return Optional.ofNullable(nearest);
+        if (!changed) {
+            return route;
+        }
+        Route view = new Route(route.getName(), route.getStatus(), segments);
+        view.setId(route.getId());
+        view.setUpdatedAt(route.getUpdatedAt());
+        view.setVersion(route.getVersion());
+        return view;
     }
 
     public Optional<RouteSegment> findSegment(UUID routeId, String segmentId) {
@@ -283,28 +709,33 @@ public class RouteService {
         return route.getSegments().stream().filter(s -> s.getId().equals(segmentId)).findFirst();
     }
 
-    public Optional<Route> undo(UUID routeId) {
-        Route route = routes.get(routeId);
-        RouteHistory history = histories.get(routeId);
-        if (route == null || history == null || history.getUndo().size() < 2) {
-            return Optional.empty();
-        }
-        Route current = history.getUndo().pop();
-        history.getRedo().push(cloneRoute(current));
-        Route previous = cloneRoute(history.getUndo().peek());
-        routes.put(routeId, previous);
-        return Optional.of(previous);
+    public Optional<Route> undo(UUID routeId, Long expectedVersion) {
+        return undoTimer.record(() -> restore(routeId, expectedVersion, RouteHistory::undo));
     }
 
-    public Optional<Route> redo(UUID routeId) {
-        RouteHistory history = histories.get(routeId);
-        if (history == null || history.getRedo().isEmpty()) {
-            return Optional.empty();
+    public Optional<Route> redo(UUID routeId, Long expectedVersion) {
+        return redoTimer.record(() -> restore(routeId, expectedVersion, RouteHistory::redo));
+    }
+
+    private Optional<Route> restore(UUID routeId, Long expectedVersion, Function<RouteHistory, Route> step) {
+        synchronized (writeLock(routeId)) {
+            Route current = routes.get(routeId);
+            RouteHistory history = histories.get(routeId);
+            if (current == null || history == null) {
+                return Optional.empty();
+            }
+            checkVersion(current, expectedVersion);
+            Route restored = step.apply(history);
+            if (restored == null) {
+                return Optional.empty();
+            }
+            // Restoring is a change too; Last-Modified must not go back in time
+            restored.setUpdatedAt(LocalDateTime.now());
+            publish(restored);
+            pointIndex.index(restored);
+            store.save(restored);
+            return Optional.of(restored);
         }
-        Route next = cloneRoute(history.getRedo().pop());
-        histories.get(routeId).getUndo().push(cloneRoute(next));
-        routes.put(routeId, next);
-        return Optional.of(next);
     }
 
     public RouteMetrics evaluate(List<RouteSegment> segments, RouteStatus status, String name) {
@@ -312,147 +743,325 @@ public class RouteService {
         return buildMetrics(temp);
     }
 
-    public String exportGpx(Route route) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-        builder.append("<gpx version=\"1.1\" creator=\"MayWalk\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
-        for (RouteSegment segment : route.getSegments()) {
-            builder.append("  <trk><name>").append(segment.getName()).append("</name><trkseg>\n");
-            for (GeoPoint point : segment.getPoints()) {
-                builder.append("    <trkpt lat=\"").append(point.getLat()).append("\" lon=\"").append(point.getLng()).append("\">");
-                if (point.isNode()) {
-                    builder.append("<type>node</type>");
+    public void exportGpx(Route route, OutputStream out) throws IOException {
+        export(exportGpxTimer, RouteExportWriter::writeGpx, route, out);
+    }
+
+    public void exportKml(Route route, OutputStream out) throws IOException {
+        export(exportKmlTimer, RouteExportWriter::writeKml, route, out);
+    }
+
+    public void exportKmz(Route route, OutputStream out) throws IOException {
+        export(exportKmzTimer, RouteExportWriter::writeKmz, route, out);
+    }
+
+    public Route importGpx(InputStream in, String name, RouteStatus status) {
+        return importGpxTimer.record(() -> saveImported(name, status,
+                countFailures(() -> RouteImportReader.readGpx(in, name + " трек", status == RouteStatus.PRELIMINARY))));
+    }
+
+    public Route importKml(InputStream in, String name, RouteStatus status) {
+        return importKmlTimer.record(() -> saveImported(name, status,
+                countFailures(() -> RouteImportReader.readKml(in, name + " трасса", status == RouteStatus.PRELIMINARY))));
+    }
+
+    /**
+     * Legacy entry point for a base64-encoded request body; decoded on the fly.
+     */
+    public Route importGpx(String base64Gpx, String name, RouteStatus status) {
+        return importGpx(decodeBase64(base64Gpx), name, status);
+    }
+
+    public Route importKml(String base64Kml, String name, RouteStatus status) {
+        return importKml(decodeBase64(base64Kml), name, status);
+    }
+
+    /**
+     * Stores freshly parsed routes as one batch for a bulk import. The whole batch is
+     * point-indexed under one lock and persisted in one store call. No undo history is
+     * recorded, so importing an archive does not keep a second copy of every track; the
+     * first edit of an imported route starts its history.
+     */
+    public void importBatch(List<Route> batch) {
+        importBatchTimer.record(() -> {
+            LocalDateTime now = LocalDateTime.now();
+            for (Route route : batch) {
+                route.setUpdatedAt(now);
+            }
+            // Journalled before published: the routes are new, so nothing can edit them
+            // (and be journalled ahead of the import) until they are visible. Meanwhile
+            // they sit in importing, which snapshots include, so a journal rotation in
+            // between cannot drop them with the old journal.
+            for (Route route : batch) {
+                importing.put(route.getId(), route);
+            }
+            try {
+                store.saveAll(batch);
+                for (Route route : batch) {
+                    synchronized (writeLock(route.getId())) {
+                        publish(route);
+                    }
+                }
+                pointIndex.index(batch);
+            } finally {
+                for (Route route : batch) {
+                    importing.remove(route.getId());
                 }
-                builder.append("</trkpt>\n");
             }
-            builder.append("  </trkseg></trk>\n");
+        });
+    }
+
+    /**
+     * Routes a store snapshot must hold: the published ones and any import batch still
+     * being journalled. Pending imports are read first; a route leaves that set only once
+     * published, so it is always found in one of the two.
+     */
+    private Collection<Route> snapshotRoutes() {
+        if (importing.isEmpty()) {
+            return routes.values();
         }
-        builder.append("</gpx>");
-        return builder.toString();
+        Map<UUID, Route> all = new LinkedHashMap<>(importing);
+        all.putAll(routes);
+        return all.values();
     }
 
-    public String exportKml(Route route) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-        builder.append("<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document>\n");
-        builder.append("<name>").append(route.getName()).append("</name>\n");
-        for (RouteSegment segment : route.getSegments()) {
-            builder.append("<Placemark><name>").append(segment.getName()).append("</name><LineString><coordinates>\n");
-            for (GeoPoint point : segment.getPoints()) {
-                builder.append(point.getLng()).append(",").append(point.getLat()).append(",0 ");
-            }
-            builder.append("</coordinates></LineString></Placemark>\n");
+    private List<RouteSegment> countFailures(Supplier<List<RouteSegment>> reader) {
+        try {
+            return reader.get();
+        } catch (RouteImportException e) {
+            importFailures.increment();
+            throw e;
         }
-        builder.append("</Document></kml>");
-        return builder.toString();
     }
 
-    public byte[] exportKmz(Route route) throws IOException {
-        String kml = exportKml(route);
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             ZipOutputStream zos = new ZipOutputStream(baos)) {
-            zos.putNextEntry(new ZipEntry("route.kml"));
-            zos.write(kml.getBytes(StandardCharsets.UTF_8));
-            zos.closeEntry();
-            zos.finish();
-            return baos.toByteArray();
+    private void export(Timer timer, ExportWriter writer, Route route, OutputStream out) throws IOException {
+        Timer.Sample sample = Timer.start(registry);
+        try {
+            writer.write(route, out);
+        } finally {
+            sample.stop(timer);
         }
     }
 
-    public Route importGpx(String base64Gpx, String name, RouteStatus status) {
-        byte[] decoded = Base64.getDecoder().decode(base64Gpx);
-        List<GeoPoint> points = parseGpx(decoded);
-        RouteSegment segment = new RouteSegment(name + " трек", SurfaceType.UNKNOWN, status == RouteStatus.PRELIMINARY, points);
-        Route route = new Route(name, status, List.of(segment));
+    private Route saveImported(String name, RouteStatus status, List<RouteSegment> segments) {
+        Route route = new Route(name, status, segments);
         save(route);
         return route;
     }
 
-    public Route importKml(String base64Kml, String name, RouteStatus status) {
-        byte[] decoded = Base64.getDecoder().decode(base64Kml);
-        List<GeoPoint> points = parseKml(decoded);
-        RouteSegment segment = new RouteSegment(name + " трасса", SurfaceType.UNKNOWN, status == RouteStatus.PRELIMINARY, points);
-        Route route = new Route(name, status, List.of(segment));
-        save(route);
-        return route;
+    private static InputStream decodeBase64(String payload) {
+        return Base64.getMimeDecoder().wrap(new ByteArrayInputStream(payload.getBytes(StandardCharsets.ISO_8859_1)));
     }
 
-    private List<GeoPoint> parseGpx(byte[] content) {
-        List<GeoPoint> points = new ArrayList<>();
-        try {
-            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
-                    .parse(new ByteArrayInputStream(content));
-            NodeList nodeList = doc.getElementsByTagName("trkpt");
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                var node = nodeList.item(i);
-                double lat = Double.parseDouble(node.getAttributes().getNamedItem("lat").getNodeValue());
-                double lon = Double.parseDouble(node.getAttributes().getNamedItem("lon").getNodeValue());
-                points.add(new GeoPoint(lat, lon, false));
+    private long pointCount() {
+        long points = 0;
+        for (Route route : routes.values()) {
+            for (RouteSegment segment : route.getSegments()) {
+                points += segment.getGeometry().size();
             }
-        } catch (Exception e) {
-            // keep empty list on parse error
         }
         return points;
     }
 
-    private List<GeoPoint> parseKml(byte[] content) {
-        List<GeoPoint> points = new ArrayList<>();
-        try {
-            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
-                    .parse(new ByteArrayInputStream(content));
-            NodeList coords = doc.getElementsByTagName("coordinates");
-            for (int i = 0; i < coords.getLength(); i++) {
-                String[] rawPoints = coords.item(i).getTextContent().trim().split(" ");
-                for (String raw : rawPoints) {
-                    String[] parts = raw.split(",");
-                    if (parts.length >= 2) {
-                        double lon = Double.parseDouble(parts[0]);
-                        double lat = Double.parseDouble(parts[1]);
-                        points.add(new GeoPoint(lat, lon, false));
-                    }
-                }
-            }
-        } catch (Exception e) {
-            // keep empty list
+    private long historyVersions() {
+        long versions = 0;
+        for (RouteHistory history : histories.values()) {
+            versions += history.depth();
         }
-        return points;
+        return versions;
+    }
+
+    private long historyRetainedBytes() {
+        long bytes = 0;
+        for (RouteHistory history : histories.values()) {
+            bytes += history.retainedBytes();
+        }
+        return bytes;
+    }
+
+    private Timer operationTimer(String operation) {
+        return Timer.builder("maywalk.route.operation")
+                .description("Latency of RouteService operations")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(registry);
     }
 
     private double round(double value) {
         return Math.round(value * 100.0) / 100.0;
     }
 
-    private void pushSnapshot(Route route) {
-        RouteHistory history = histories.computeIfAbsent(route.getId(), key -> new RouteHistory());
-        history.getUndo().push(cloneRoute(route));
-        history.getRedo().clear();
-    }
-
-    private Route cloneRoute(Route source) {
-        Route copy = new Route();
-        copy.setId(source.getId());
-        copy.setName(source.getName());
-        copy.setStatus(source.getStatus());
-        copy.setUpdatedAt(source.getUpdatedAt());
-        copy.setSegments(cloneSegments(source.getSegments()));
-        return copy;
-    }
-
-    private List<RouteSegment> cloneSegments(List<RouteSegment> segments) {
-        List<RouteSegment> copy = new ArrayList<>();
-        for (RouteSegment segment : segments) {
-            RouteSegment newSeg = new RouteSegment();
-            newSeg.setId(segment.getId());
-            newSeg.setName(segment.getName());
-            newSeg.setSurfaceType(segment.getSurfaceType());
-            newSeg.setPreliminary(segment.isPreliminary());
-            List<GeoPoint> points = new ArrayList<>();
-            for (GeoPoint p : segment.getPoints()) {
-                points.add(new GeoPoint(p.getLat(), p.getLng(), p.isNode()));
+    @Override
+    public void destroy() {
+        if (classifier instanceof ThreadPoolTaskExecutor) {
+            ((ThreadPoolTaskExecutor) classifier).shutdown();
+        }
+        snapper.shutdown();
+    }
+
+    /**
+     * Gives the route a new version; call after its content has changed so a memo taken
+     * during the change is never mistaken for the current one.
+     */
+    private void touch(Route route) {
+        route.setVersion(versions.incrementAndGet());
+    }
+
+    private Object writeLock(UUID routeId) {
+        return writeLocks.computeIfAbsent(routeId, key -> new Object());
+    }
+
+    /**
+     * Makes {@code next} the current snapshot of its route; callers hold the route's write lock.
+     */
+    private void publish(Route next) {
+        touch(next);
+        Route previous = routes.put(next.getId(), next);
+        catalog.put(summarize(next));
+        segmentIndex.index(next);
+        for (RouteListener listener : listeners) {
+            listener.published(previous, next);
+        }
+    }
+
+    void addListener(RouteListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Listing projection of a snapshot; segment lengths are cached on their geometry, so
+     * after an append this measures only the new edge and rescans the bounds.
+     */
+    private RouteSummary summarize(Route route) {
+        double meters = 0;
+        BoundingBox bounds = null;
+        for (RouteSegment segment : route.getSegments()) {
+            PackedGeometry geometry = segment.getGeometry();
+            if (geometry.isEmpty()) {
+                continue;
             }
-            newSeg.setPoints(points);
-            copy.add(newSeg);
+            meters += geometry.lengthMeters();
+            bounds = bounds == null ? geometry.bounds() : bounds.union(geometry.bounds());
+        }
+        RouteSummary summary = new RouteSummary();
+        summary.setId(route.getId());
+        summary.setName(route.getName());
+        summary.setStatus(route.getStatus());
+        summary.setUpdatedAt(route.getUpdatedAt() != null ? route.getUpdatedAt() : LocalDateTime.MIN);
+        summary.setVersion(route.getVersion());
+        summary.setBounds(bounds);
+        summary.setTotalKm(round(meters / 1000d));
+        return summary;
+    }
+
+    private static void checkVersion(Route current, Long expectedVersion) {
+        if (expectedVersion != null && expectedVersion != current.getVersion()) {
+            throw new RouteVersionConflictException(current.getId(), expectedVersion, current.getVersion());
+        }
+    }
+
+    /**
+     * Starts the next snapshot from {@code current}, sharing its segments until they are replaced.
+     */
+    private static Route nextSnapshot(Route current) {
+        Route next = new Route(current.getName(), current.getStatus(), current.getSegments());
+        next.setId(current.getId());
+        next.setUpdatedAt(current.getUpdatedAt());
+        return next;
+    }
+
+    /**
+     * Adds to {@code out} the runs of {@code segment} whose edges touch {@code box}; a
+     * segment inside the box is added as it is.
+     */
+    private static void clip(RouteSegment segment, BoundingBox box, List<RouteSegment> out) {
+        PackedGeometry points = segment.getGeometry();
+        BoundingBox bounds = points.bounds();
+        if (bounds.getMinLat() >= box.getMinLat() && bounds.getMaxLat() <= box.getMaxLat()
+                && bounds.getMinLng() >= box.getMinLng() && bounds.getMaxLng() <= box.getMaxLng()) {
+            out.add(segment);
+            return;
+        }
+        int start = -1;
+        for (int i = 1; i <= points.size(); i++) {
+            boolean touches = i < points.size() && box.intersects(
+                    Math.min(points.lat(i - 1), points.lat(i)), Math.min(points.lng(i - 1), points.lng(i)),
+                    Math.max(points.lat(i - 1), points.lat(i)), Math.max(points.lng(i - 1), points.lng(i)));
+            if (touches && start < 0) {
+                start = i - 1;
+            } else if (!touches && start >= 0) {
+                out.add(piece(segment, start, i));
+                start = -1;
+            }
+        }
+    }
+
+    private static RouteSegment piece(RouteSegment segment, int from, int to) {
+        PackedGeometry source = segment.getGeometry();
+        PackedGeometry points = new PackedGeometry(to - from);
+        for (int i = from; i < to; i++) {
+            points.appendFixed(source.latFixed(i), source.lngFixed(i), source.isNode(i));
+        }
+        return withGeometry(segment, points);
+    }
+
+    private static RouteSegment simplified(RouteSegment segment, double toleranceMeters) {
+        PackedGeometry points = segment.getGeometry();
+        PackedGeometry simplified = points.simplified(toleranceMeters);
+        return simplified == points ? segment : withGeometry(segment, simplified);
+    }
+
+    private static RouteSegment withGeometry(RouteSegment segment, PackedGeometry points) {
+        RouteSegment next = new RouteSegment();
+        next.setId(segment.getId());
+        next.setName(segment.getName());
+        next.setSurfaceType(segment.getSurfaceType());
+        next.setPreliminary(segment.isPreliminary());
+        next.setPoints(points);
+        return next;
+    }
+
+    private static RouteSegment withPoint(RouteSegment segment, GeoPoint point) {
+        return withGeometry(segment, segment.getGeometry().appended(point.getLat(), point.getLng(), point.isNode()));
+    }
+
+    /**
+     * Pushes {@code next} onto the route's undo stack; a route loaded from the store gets
+     * its loaded state recorded first, so the first edit after a restart can be undone.
+     */
+    private void recordHistory(Route current, Route next) {
+        histories.computeIfAbsent(next.getId(), key -> {
+            RouteHistory history = new RouteHistory(historyDepth, historyBytes);
+            if (current != null) {
+                history.record(current);
+            }
+            return history;
+        }).record(next);
+    }
+
+    private interface ExportWriter {
+        void write(Route route, OutputStream out) throws IOException;
+    }
+
+    private static final class MetricsMemo {
+        final long version;
+        final RouteMetrics metrics;
+        final Map<PackedGeometry, SegmentSurface> surfaces;
+
+        MetricsMemo(long version, RouteMetrics metrics, Map<PackedGeometry, SegmentSurface> surfaces) {
+            this.version = version;
+            this.metrics = metrics;
+            this.surfaces = surfaces;
+        }
+    }
+
+    private static final class SegmentSurface {
+        final int stamp;
+        final SurfaceType type;
+
+        SegmentSurface(int stamp, SurfaceType type) {
+            this.stamp = stamp;
+            this.type = type;
         }
-        return copy;
     }
 }
@@ -0,0 +1,21 @@
+package com.maywalk.routes.service;
+
+import java.util.UUID;
+
+/**
+ * A conditional write named a route version that is no longer the current one.
+ */
+public class RouteVersionConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long currentVersion;
+
+    public RouteVersionConflictException(UUID routeId, long expectedVersion, long currentVersion) {
+        super("Route " + routeId + " is at version " + currentVersion + ", not " + expectedVersion);
+        this.currentVersion = currentVersion;
+    }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+}
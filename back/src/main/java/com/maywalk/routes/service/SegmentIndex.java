@@ -0,0 +1,182 @@
+package com.maywalk.routes.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.maywalk.routes.model.BoundingBox;
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+
+/**
+ * Coarse lat/lng grid over segment bounding boxes. A segment is listed in every
+ * cell its box overlaps, so a viewport query visits the cells under the viewport
+ * and never looks at points. Boxes spanning more than {@link #MAX_CELLS} cells
+ * are kept aside and checked by every query instead of flooding the grid.
+ */
+class SegmentIndex {
+    private static final int MAX_CELLS = 1024;
+
+    private final double cellDegrees;
+    private final Map<Long, List<Envelope>> cells = new HashMap<>();
+    private final List<Envelope> oversized = new ArrayList<>();
+    private final Map<UUID, List<Envelope>> envelopesByRoute = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    SegmentIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    /**
+     * Replaces the envelopes of {@code route}; segment bounds are cached on their
+     * geometry, so re-indexing after an append does not rescan the track.
+     */
+    void index(Route route) {
+        List<Envelope> envelopes = new ArrayList<>(route.getSegments().size());
+        for (RouteSegment segment : route.getSegments()) {
+            PackedGeometry geometry = segment.getGeometry();
+            if (!geometry.isEmpty()) {
+                envelopes.add(new Envelope(route.getId(), segment.getId(), geometry.bounds()));
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            removeLocked(route.getId());
+            for (Envelope envelope : envelopes) {
+                addLocked(envelope);
+            }
+            envelopesByRoute.put(route.getId(), envelopes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            cells.clear();
+            oversized.clear();
+            envelopesByRoute.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the segments whose bounding box intersects {@code box},
+     * grouped by route.
+     */
+    Map<UUID, Set<String>> within(BoundingBox box) {
+        int minLat = cell(box.getMinLat());
+        int maxLat = cell(box.getMaxLat());
+        int minLng = cell(box.getMinLng());
+        int maxLng = cell(box.getMaxLng());
+        Map<UUID, Set<String>> hits = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            long range = (long) (maxLat - minLat + 1) * (maxLng - minLng + 1);
+            if (range > cells.size()) {
+                // The box covers more cells than are populated: walk the occupied ones
+                for (List<Envelope> bucket : cells.values()) {
+                    collect(bucket, box, hits);
+                }
+            } else {
+                for (int latCell = minLat; latCell <= maxLat; latCell++) {
+                    for (int lngCell = minLng; lngCell <= maxLng; lngCell++) {
+                        List<Envelope> bucket = cells.get(key(latCell, lngCell));
+                        if (bucket != null) {
+                            collect(bucket, box, hits);
+                        }
+                    }
+                }
+            }
+            collect(oversized, box, hits);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void collect(List<Envelope> bucket, BoundingBox box, Map<UUID, Set<String>> hits) {
+        for (Envelope envelope : bucket) {
+            if (envelope.bounds.intersects(box)) {
+                hits.computeIfAbsent(envelope.routeId, k -> new HashSet<>()).add(envelope.segmentId);
+            }
+        }
+    }
+
+    private void addLocked(Envelope envelope) {
+        BoundingBox bounds = envelope.bounds;
+        int minLat = cell(bounds.getMinLat());
+        int maxLat = cell(bounds.getMaxLat());
+        int minLng = cell(bounds.getMinLng());
+        int maxLng = cell(bounds.getMaxLng());
+        if ((long) (maxLat - minLat + 1) * (maxLng - minLng + 1) > MAX_CELLS) {
+            oversized.add(envelope);
+            return;
+        }
+        for (int latCell = minLat; latCell <= maxLat; latCell++) {
+            for (int lngCell = minLng; lngCell <= maxLng; lngCell++) {
+                cells.computeIfAbsent(key(latCell, lngCell), k -> new ArrayList<>(4)).add(envelope);
+            }
+        }
+    }
+
+    private void removeLocked(UUID routeId) {
+        List<Envelope> envelopes = envelopesByRoute.remove(routeId);
+        if (envelopes == null) {
+            return;
+        }
+        for (Envelope envelope : envelopes) {
+            BoundingBox bounds = envelope.bounds;
+            int minLat = cell(bounds.getMinLat());
+            int maxLat = cell(bounds.getMaxLat());
+            int minLng = cell(bounds.getMinLng());
+            int maxLng = cell(bounds.getMaxLng());
+            if ((long) (maxLat - minLat + 1) * (maxLng - minLng + 1) > MAX_CELLS) {
+                oversized.remove(envelope);
+                continue;
+            }
+            for (int latCell = minLat; latCell <= maxLat; latCell++) {
+                for (int lngCell = minLng; lngCell <= maxLng; lngCell++) {
+                    long key = key(latCell, lngCell);
+                    List<Envelope> bucket = cells.get(key);
+                    if (bucket != null) {
+                        bucket.remove(envelope);
+                        if (bucket.isEmpty()) {
+                            cells.remove(key);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private int cell(double degrees) {
+        return (int) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long key(int latCell, int lngCell) {
+        return ((long) latCell << 32) | (lngCell & 0xffffffffL);
+    }
+
+    private static final class Envelope {
+        final UUID routeId;
+        final String segmentId;
+        final BoundingBox bounds;
+
+        Envelope(UUID routeId, String segmentId, BoundingBox bounds) {
+            this.routeId = routeId;
+            this.segmentId = segmentId;
+            this.bounds = bounds;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.maywalk.routes.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.SurfaceType;
+
+/**
+ * LRU cache of surface classification results keyed by segment geometry.
+ * Entries expire after a TTL and are mirrored to an append-only file so the
+ * cache survives restarts; the file is compacted on load and whenever it
+ * grows well past the in-memory capacity. The file is written by a single
+ * writer thread that flushes whatever has queued up, so classifier threads
+ * only hold the cache lock for the in-memory update.
+ */
+@Component
+public class SurfaceCache implements MeterBinder, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(SurfaceCache.class);
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Path file;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final BlockingQueue<Line> pending = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+    // Owned by the writer thread once it has started
+    private BufferedWriter writer;
+    private int appendedLines;
+
+    public SurfaceCache(@Value("${maywalk.surface-cache.max-entries:10000}") int maxEntries,
+                        @Value("${maywalk.surface-cache.ttl:7d}") Duration ttl,
+                        @Value("${maywalk.surface-cache.file:}") String file) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.file = file == null || file.isBlank() ? null : Paths.get(file);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SurfaceCache.this.maxEntries;
+            }
+        };
+        load();
+        if (this.file != null) {
+            flusher = new Thread(this::writeLoop, "surface-cache-writer");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    public static String key(PackedGeometry points) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            for (int i = 0; i < points.size(); i++) {
+                buffer.clear();
+                buffer.putDouble(points.lat(i)).putDouble(points.lng(i));
+                digest.update(buffer.array());
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized SurfaceType get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.expiresAt < System.currentTimeMillis()) {
+            if (entry != null) {
+                entries.remove(key);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.type;
+    }
+
+    public void put(String key, SurfaceType type) {
+        Entry entry = new Entry(type, System.currentTimeMillis() + ttlMillis);
+        synchronized (this) {
+            entries.put(key, entry);
+            // Queued under the lock so the file sees puts of one key in map order
+            if (flusher != null) {
+                pending.add(new Line(key, entry));
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("maywalk.surface-cache.requests", this, SurfaceCache::getHits).tag("result", "hit").register(registry);
+        FunctionCounter.builder("maywalk.surface-cache.requests", this, SurfaceCache::getMisses).tag("result", "miss").register(registry);
+        Gauge.builder("maywalk.surface-cache.size", this, SurfaceCache::size).register(registry);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        if (flusher != null) {
+            flusher.join();
+        }
+    }
+
+    private void load() {
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t");
+                if (parts.length != 3) {
+                    continue;
+                }
+                try {
+                    long expiresAt = Long.parseLong(parts[2]);
+                    if (expiresAt >= now) {
+                        entries.put(parts[0], new Entry(SurfaceType.valueOf(parts[1]), expiresAt));
+                    }
+                } catch (IllegalArgumentException ignored) {
+                    // skip truncated or foreign lines
+                }
+            }
+            compact(entries);
+        } catch (IOException e) {
+            log.warn("Could not load surface cache from {}", file, e);
+        }
+    }
+
+    private void writeLoop() {
+        List<Line> batch = new ArrayList<>();
+        while (running || !pending.isEmpty()) {
+            try {
+                Line first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pending.drainTo(batch);
+                append(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.warn("Could not close surface cache file {}", file, e);
+            }
+        }
+    }
+
+    private void append(List<Line> batch) {
+        try {
+            if (appendedLines > maxEntries * 2) {
+                // Every queued entry is already in the map, so the rewritten file holds it
+                Map<String, Entry> snapshot;
+                synchronized (this) {
+                    snapshot = new LinkedHashMap<>(entries);
+                }
+                compact(snapshot);
+                return;
+            }
+            if (writer == null) {
+                if (file.getParent() != null) {
+                    Files.createDirectories(file.getParent());
+                }
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            for (Line line : batch) {
+                writeLine(writer, line.key, line.entry);
+            }
+            writer.flush();
+            appendedLines += batch.size();
+        } catch (IOException e) {
+            log.warn("Could not persist {} surface cache entries to {}", batch.size(), file, e);
+        }
+    }
+
+    private void compact(Map<String, Entry> snapshot) throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            // Insertion order of the rewritten file mirrors LRU order, eldest first
+            snapshot.forEach((key, entry) -> {
+                try {
+                    writeLine(out, key, entry);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        appendedLines = snapshot.size();
+    }
+
+    private static void writeLine(BufferedWriter out, String key, Entry entry) throws IOException {
+        out.write(key);
+        out.write('\t');
+        out.write(entry.type.name());
+        out.write('\t');
+        out.write(Long.toString(entry.expiresAt));
+        out.newLine();
+    }
+
+    private static class Line {
+        final String key;
+        final Entry entry;
+
+        Line(String key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    private static class Entry {
+        final SurfaceType type;
+        final long expiresAt;
+
+        Entry(SurfaceType type, long expiresAt) {
+            this.type = type;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
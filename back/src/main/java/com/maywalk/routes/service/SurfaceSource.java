@@ -0,0 +1,26 @@
+package com.maywalk.routes.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.maywalk.routes.model.BoundingBox;
+
+/**
+ * Supplies classified OSM ways for surface detection of FINAL routes.
+ * Selected with {@code maywalk.surface.source}.
+ */
+public interface SurfaceSource {
+
+    /**
+     * Hint that {@link #ways} is about to be called for each of the boxes. Returns
+     * by {@code deadlineNanos} ({@link System#nanoTime()} based) at the latest.
+     */
+    default void prefetch(Collection<BoundingBox> boxes, long deadlineNanos) {
+    }
+
+    /**
+     * Returns the ways intersecting the box, or {@code null} if the source is
+     * unable to answer before {@code deadlineNanos}.
+     */
+    List<OsmWay> ways(BoundingBox box, long deadlineNanos);
+}
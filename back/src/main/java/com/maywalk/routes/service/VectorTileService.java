@@ -0,0 +1,458 @@
+package com.maywalk.routes.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import com.maywalk.routes.model.BoundingBox;
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+import com.maywalk.routes.util.GeoUtils;
+
+/**
+ * Renders the route archive as Mapbox Vector Tiles: one {@code routes} layer with a
+ * line feature per segment, clipped to the tile and simplified to a screen pixel at
+ * its zoom. Rendered tiles sit in an LRU cache; a published route change drops only
+ * the cached tiles its changed segments touch, before and after the change, or just
+ * the new edges when a segment only gained points. The writer merely queues the
+ * changed boxes; the next cache access drops the tiles in their range at each zoom.
+ */
+@Service
+public class VectorTileService implements RouteListener {
+    public static final int MAX_ZOOM = 22;
+    public static final String LAYER = "routes";
+
+    /** Tile edge overlap, in tile units, so lines stroked across tile borders join up. */
+    private static final int BUFFER = 64;
+
+    private final RouteService routeService;
+    private final int maxTiles;
+    private final Map<Long, Tile> tiles;
+    private final Queue<List<BoundingBox>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // Set when more changes queued up than tiles fit in the cache: dropping it all is cheaper
+    private volatile boolean overflowed;
+    private final AtomicLong generation = new AtomicLong();
+    private final Timer renderTimer;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter invalidated;
+
+    public VectorTileService(RouteService routeService, MeterRegistry registry,
+                             @Value("${maywalk.tiles.cache-size:2048}") int maxTiles) {
+        this.routeService = routeService;
+        this.maxTiles = maxTiles;
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+                return size() > VectorTileService.this.maxTiles;
+            }
+        };
+        this.renderTimer = Timer.builder("maywalk.tiles.render")
+                .description("Time to render a vector tile that was not cached")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.hits = registry.counter("maywalk.tiles.requests", "result", "hit");
+        this.misses = registry.counter("maywalk.tiles.requests", "result", "miss");
+        this.invalidated = registry.counter("maywalk.tiles.invalidated");
+        Gauge.builder("maywalk.tiles.cached", this, VectorTileService::cachedTiles)
+                .description("Rendered vector tiles held in memory").register(registry);
+        routeService.addListener(this);
+    }
+
+    /**
+     * Returns tile {@code z/x/y}; its body is empty when no route crosses it.
+     *
+     * @throws IllegalArgumentException if the tile does not exist at that zoom
+     */
+    public Tile tile(int z, int x, int y) {
+        if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0 || x >= 1 << z || y >= 1 << z) {
+            throw new IllegalArgumentException("No tile " + z + "/" + x + "/" + y);
+        }
+        long key = key(z, x, y);
+        long started;
+        synchronized (this) {
+            invalidatePending();
+            Tile cached = tiles.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            started = generation.get();
+        }
+        misses.increment();
+        Tile rendered = new Tile(renderTimer.record(() -> render(z, x, y)));
+        synchronized (this) {
+            invalidatePending();
+            // A route published while rendering may have been read either side of the change
+            if (generation.get() == started && maxTiles > 0) {
+                tiles.put(key, rendered);
+            }
+        }
+        return rendered;
+    }
+
+    /**
+     * Runs under the route's write lock, so it only queues what changed; the boxes are
+     * queued before the generation moves, so a render that sees the new generation also
+     * finds them queued.
+     */
+    @Override
+    public void published(Route previous, Route next) {
+        List<BoundingBox> changed = changedBounds(previous, next);
+        if (changed.isEmpty()) {
+            return;
+        }
+        if (pendingCount.incrementAndGet() > Math.max(maxTiles, 1)) {
+            overflowed = true;
+        } else {
+            pending.add(changed);
+        }
+        generation.incrementAndGet();
+    }
+
+    @Override
+    public synchronized void cleared() {
+        pending.clear();
+        pendingCount.set(0);
+        generation.incrementAndGet();
+        tiles.clear();
+    }
+
+    private synchronized int cachedTiles() {
+        invalidatePending();
+        return tiles.size();
+    }
+
+    /**
+     * Drops the cached tiles that queued changes touch. A tile matches when the change
+     * overlaps it widened by the render buffer, as in {@link #bounds}. At each zoom the
+     * matching tiles form a range; small ranges are looked up key by key and the rest
+     * are matched in one pass over the cache, so no tile bounds are computed.
+     */
+    private void invalidatePending() {
+        if (overflowed) {
+            overflowed = false;
+            pending.clear();
+            pendingCount.set(0);
+            invalidated.increment(tiles.size());
+            tiles.clear();
+            return;
+        }
+        List<BoundingBox> changed;
+        while ((changed = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            for (BoundingBox box : changed) {
+                invalidate(box);
+            }
+        }
+    }
+
+    private void invalidate(BoundingBox box) {
+        double pad = (double) BUFFER / MvtEncoder.EXTENT;
+        double west = mercatorX(box.getMinLng());
+        double east = mercatorX(box.getMaxLng());
+        double north = mercatorY(box.getMaxLat());
+        double south = mercatorY(box.getMinLat());
+        int[][] ranges = new int[MAX_ZOOM + 1][];
+        boolean scan = false;
+        for (int z = 0; z <= MAX_ZOOM; z++) {
+            long n = 1L << z;
+            int minX = tileIndex(west * n - pad, n);
+            int maxX = tileIndex(east * n + pad, n);
+            int minY = tileIndex(north * n - pad, n);
+            int maxY = tileIndex(south * n + pad, n);
+            if ((long) (maxX - minX + 1) * (maxY - minY + 1) > tiles.size()) {
+                ranges[z] = new int[]{minX, maxX, minY, maxY};
+                scan = true;
+                continue;
+            }
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    if (tiles.remove(key(z, x, y)) != null) {
+                        invalidated.increment();
+                    }
+                }
+            }
+        }
+        if (!scan) {
+            return;
+        }
+        for (Iterator<Long> it = tiles.keySet().iterator(); it.hasNext(); ) {
+            long key = it.next();
+            int[] range = ranges[(int) (key >>> 58)];
+            int x = (int) ((key >>> 29) & 0x1fffffff);
+            int y = (int) (key & 0x1fffffff);
+            if (range != null && x >= range[0] && x <= range[1] && y >= range[2] && y <= range[3]) {
+                it.remove();
+                invalidated.increment();
+            }
+        }
+    }
+
+    private static int tileIndex(double position, long tiles) {
+        return (int) Math.max(0, Math.min(tiles - 1, (long) Math.floor(position)));
+    }
+
+    private byte[] render(int z, int x, int y) {
+        BoundingBox box = bounds(key(z, x, y));
+        double tolerance = GeoUtils.metersPerPixel(z, (box.getMinLat() + box.getMaxLat()) / 2);
+        MvtEncoder encoder = new MvtEncoder(LAYER);
+        for (Route route : routeService.within(box, false, tolerance)) {
+            for (RouteSegment segment : route.getSegments()) {
+                List<int[]> parts = clip(segment.getGeometry(), z, x, y);
+                if (parts.isEmpty()) {
+                    continue;
+                }
+                Map<String, Object> attributes = new LinkedHashMap<>();
+                attributes.put("routeId", route.getId().toString());
+                attributes.put("route", route.getName());
+                attributes.put("segmentId", segment.getId());
+                attributes.put("segment", segment.getName());
+                attributes.put("status", route.getStatus() == null ? null : route.getStatus().name());
+                attributes.put("surfaceType", segment.getSurfaceType() == null ? null : segment.getSurfaceType().name());
+                attributes.put("preliminary", segment.isPreliminary());
+                encoder.addLine(attributes, parts);
+            }
+        }
+        return encoder.encode();
+    }
+
+    /**
+     * Projects the track to Web Mercator tile units and cuts each edge to the buffered
+     * tile square, so a track leaving and re-entering the tile becomes several parts.
+     */
+    private static List<int[]> clip(PackedGeometry points, int z, int x, int y) {
+        List<int[]> parts = new ArrayList<>();
+        if (points.size() < 2) {
+            return parts;
+        }
+        double scale = (double) MvtEncoder.EXTENT * (1L << z);
+        double offsetX = (double) x * MvtEncoder.EXTENT;
+        double offsetY = (double) y * MvtEncoder.EXTENT;
+        double min = -BUFFER;
+        double max = MvtEncoder.EXTENT + BUFFER;
+        Part part = new Part();
+        double px = mercatorX(points.lng(0)) * scale - offsetX;
+        double py = mercatorY(points.lat(0)) * scale - offsetY;
+        for (int i = 1; i < points.size(); i++) {
+            double qx = mercatorX(points.lng(i)) * scale - offsetX;
+            double qy = mercatorY(points.lat(i)) * scale - offsetY;
+            double[] t = clipEdge(px, py, qx, qy, min, max);
+            if (t == null) {
+                part.flushTo(parts);
+            } else {
+                if (t[0] > 0) {
+                    part.flushTo(parts);
+                }
+                double dx = qx - px;
+                double dy = qy - py;
+                part.add(px + t[0] * dx, py + t[0] * dy);
+                part.add(px + t[1] * dx, py + t[1] * dy);
+                if (t[1] < 1) {
+                    part.flushTo(parts);
+                }
+            }
+            px = qx;
+            py = qy;
+        }
+        part.flushTo(parts);
+        return parts;
+    }
+
+    /**
+     * Liang–Barsky: the parameter range of edge {@code p-q} inside the square
+     * {@code [min, max]²}, or {@code null} if the edge misses it.
+     */
+    private static double[] clipEdge(double px, double py, double qx, double qy, double min, double max) {
+        double dx = qx - px;
+        double dy = qy - py;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {px - min, max - px, py - min, max - py};
+        double t0 = 0;
+        double t1 = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return null;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+            }
+        }
+        return t0 > t1 ? null : new double[]{t0, t1};
+    }
+
+    private static double mercatorX(double lng) {
+        return (lng + 180) / 360;
+    }
+
+    private static double mercatorY(double lat) {
+        double clamped = Math.max(-85.05112878, Math.min(85.05112878, lat));
+        double sin = Math.sin(Math.toRadians(clamped));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    /**
+     * Bounds of tile {@code key} widened by the render buffer.
+     */
+    private static BoundingBox bounds(long key) {
+        int z = (int) (key >>> 58);
+        int x = (int) ((key >>> 29) & 0x1fffffff);
+        int y = (int) (key & 0x1fffffff);
+        double n = 1L << z;
+        double pad = (double) BUFFER / MvtEncoder.EXTENT;
+        double west = (x - pad) / n * 360 - 180;
+        double east = (x + 1 + pad) / n * 360 - 180;
+        double north = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * (y - pad) / n))));
+        double south = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * (y + 1 + pad) / n))));
+        return new BoundingBox(south, west, north, east);
+    }
+
+    private static long key(int z, int x, int y) {
+        return ((long) z << 58) | ((long) x << 29) | y;
+    }
+
+    /**
+     * Bounds of what {@code next} changed on the map: every segment when the route's
+     * attributes changed, otherwise the segments whose geometry or attributes differ
+     * plus the ones that were removed. A segment that only gained points contributes
+     * just its new edges.
+     */
+    private static List<BoundingBox> changedBounds(Route previous, Route next) {
+        List<BoundingBox> changed = new ArrayList<>();
+        boolean routeChanged = previous == null || !Objects.equals(previous.getName(), next.getName())
+                || previous.getStatus() != next.getStatus();
+        Map<String, RouteSegment> before = new HashMap<>();
+        if (previous != null) {
+            for (RouteSegment segment : previous.getSegments()) {
+                before.put(segment.getId(), segment);
+            }
+        }
+        for (RouteSegment segment : next.getSegments()) {
+            RouteSegment old = before.remove(segment.getId());
+            if (routeChanged || old == null || old.getGeometry() != segment.getGeometry()
+                    || old.getSurfaceType() != segment.getSurfaceType() || old.isPreliminary() != segment.isPreliminary()
+                    || !Objects.equals(old.getName(), segment.getName())) {
+                if (!routeChanged && old != null && sameAttributes(old, segment) && addAppended(changed, old, segment)) {
+                    continue;
+                }
+                addBounds(changed, segment);
+                if (old != null) {
+                    addBounds(changed, old);
+                }
+            }
+        }
+        for (RouteSegment removed : before.values()) {
+            addBounds(changed, removed);
+        }
+        return changed;
+    }
+
+    private static boolean sameAttributes(RouteSegment old, RouteSegment segment) {
+        return old.getSurfaceType() == segment.getSurfaceType() && old.isPreliminary() == segment.isPreliminary()
+                && Objects.equals(old.getName(), segment.getName());
+    }
+
+    /**
+     * Adds the bounds of the edges {@code segment} appended to {@code old}, if that is
+     * all that changed.
+     */
+    private static boolean addAppended(List<BoundingBox> changed, RouteSegment old, RouteSegment segment) {
+        PackedGeometry before = old.getGeometry();
+        PackedGeometry after = segment.getGeometry();
+        if (before.isEmpty() || !after.continues(before.lineageToken(), before.size())) {
+            return false;
+        }
+        double minLat = Double.MAX_VALUE;
+        double minLng = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double maxLng = -Double.MAX_VALUE;
+        for (int i = before.size() - 1; i < after.size(); i++) {
+            minLat = Math.min(minLat, after.lat(i));
+            maxLat = Math.max(maxLat, after.lat(i));
+            minLng = Math.min(minLng, after.lng(i));
+            maxLng = Math.max(maxLng, after.lng(i));
+        }
+        changed.add(new BoundingBox(minLat, minLng, maxLat, maxLng));
+        return true;
+    }
+
+    private static void addBounds(List<BoundingBox> changed, RouteSegment segment) {
+        if (!segment.getGeometry().isEmpty()) {
+            changed.add(segment.getGeometry().bounds());
+        }
+    }
+
+    /**
+     * Collects one clipped line in tile units, dropping points that round onto the previous one.
+     */
+    private static final class Part {
+        private int[] coords = new int[16];
+        private int length;
+
+        void add(double x, double y) {
+            int ix = (int) Math.round(x);
+            int iy = (int) Math.round(y);
+            if (length > 0 && coords[length - 2] == ix && coords[length - 1] == iy) {
+                return;
+            }
+            if (length == coords.length) {
+                coords = Arrays.copyOf(coords, length * 2);
+            }
+            coords[length++] = ix;
+            coords[length++] = iy;
+        }
+
+        void flushTo(List<int[]> parts) {
+            if (length >= 4) {
+                parts.add(Arrays.copyOf(coords, length));
+            }
+            length = 0;
+        }
+    }
+
+    /**
+     * A rendered tile and its validator.
+     */
+    public static final class Tile {
+        private final byte[] body;
+        private final String eTag;
+
+        Tile(byte[] body) {
+            this.body = body;
+            this.eTag = Integer.toHexString(Arrays.hashCode(body)) + "-" + body.length;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+    }
+}
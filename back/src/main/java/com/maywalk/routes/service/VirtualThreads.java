@@ -0,0 +1,28 @@
+package com.maywalk.routes.service;
+
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+/**
+ * Executors for the blocking work this package owns, following the same
+ * {@code spring.threads.virtual.enabled} switch Spring Boot uses for request
+ * handling. Virtual threads need a JDK 21 runtime; on an older one the switch is
+ * ignored, as Spring Boot itself does, and the platform-thread executors stay.
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    private static boolean available(boolean enabled) {
+        return enabled && JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE);
+    }
+
+    /**
+     * Returns an executor that starts one virtual thread per task, or {@code null}
+     * when virtual threads are disabled or unsupported.
+     */
+    static AsyncTaskExecutor executor(boolean enabled, String threadNamePrefix) {
+        return available(enabled) ? new VirtualThreadTaskExecutor(threadNamePrefix) : null;
+    }
+}
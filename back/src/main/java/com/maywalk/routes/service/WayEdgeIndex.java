@@ -0,0 +1,167 @@
+package com.maywalk.routes.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.util.GeoUtils;
+
+/**
+ * Grid over the edges of a set of ways, built for one classification call.
+ * Lets a point find the closest way edge by looking at neighbouring cells only.
+ */
+class WayEdgeIndex {
+    private static final double CELL_DEGREES = 0.0006; // ~65m north-south
+    private static final double FIXED_PER_DEGREE = PackedGeometry.toFixed(1);
+
+    private final Map<Long, Cell> cells = new HashMap<>();
+
+    WayEdgeIndex(List<OsmWay> ways) {
+        for (OsmWay way : ways) {
+            PackedGeometry geometry = way.getGeometry();
+            if (geometry.size() == 1) {
+                add(way, geometry, 0, 0);
+            }
+            for (int i = 1; i < geometry.size(); i++) {
+                add(way, geometry, i - 1, i);
+            }
+        }
+    }
+
+    /**
+     * Returns the closest edge strictly nearer than {@code radiusMeters}, or {@code null}.
+     * Edges are compared by squared equirectangular distance in fixed-point units,
+     * projected once with cos(lat) of the query point. The point's own cell is searched
+     * first, then only the cells and edges whose box is still closer than the best match.
+     */
+    Match nearest(double lat, double lng, double radiusMeters) {
+        double latSpan = radiusMeters / GeoUtils.METERS_PER_DEGREE;
+        double cosLat = Math.max(Math.cos(Math.toRadians(lat)), 1e-6);
+        double lngSpan = latSpan / cosLat;
+        Query query = new Query(lat, lng, cosLat, latSpan);
+        int homeRow = cell(lat);
+        int homeCol = cell(lng);
+        query.scan(cells.get(key(homeRow, homeCol)));
+        for (int row = cell(lat - latSpan); row <= cell(lat + latSpan); row++) {
+            for (int col = cell(lng - lngSpan); col <= cell(lng + lngSpan); col++) {
+                if ((row != homeRow || col != homeCol) && query.reaches(row, col)) {
+                    query.scan(cells.get(key(row, col)));
+                }
+            }
+        }
+        return query.best == null ? null
+                : new Match(query.best, Math.sqrt(query.limitSquared) / FIXED_PER_DEGREE * GeoUtils.METERS_PER_DEGREE);
+    }
+
+    private void add(OsmWay way, PackedGeometry geometry, int from, int to) {
+        int fromLat = geometry.latFixed(from);
+        int fromLng = geometry.lngFixed(from);
+        int toLat = geometry.latFixed(to);
+        int toLng = geometry.lngFixed(to);
+        int minRow = cell(Math.min(fromLat, toLat) / FIXED_PER_DEGREE);
+        int maxRow = cell(Math.max(fromLat, toLat) / FIXED_PER_DEGREE);
+        int minCol = cell(Math.min(fromLng, toLng) / FIXED_PER_DEGREE);
+        int maxCol = cell(Math.max(fromLng, toLng) / FIXED_PER_DEGREE);
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                cells.computeIfAbsent(key(row, col), k -> new Cell()).add(way, fromLat, fromLng, toLat, toLng);
+            }
+        }
+    }
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    /**
+     * Nearest-edge search state; x is longitude scaled by cos(lat), both in fixed-point units.
+     */
+    private static final class Query {
+        private static final double CELL_FIXED = CELL_DEGREES * FIXED_PER_DEGREE;
+
+        final double x;
+        final double y;
+        final double cosLat;
+        double limitSquared;
+        OsmWay best;
+
+        Query(double lat, double lng, double cosLat, double radiusDegrees) {
+            this.x = lng * FIXED_PER_DEGREE * cosLat;
+            this.y = lat * FIXED_PER_DEGREE;
+            this.cosLat = cosLat;
+            double radius = radiusDegrees * FIXED_PER_DEGREE;
+            this.limitSquared = radius * radius;
+        }
+
+        boolean reaches(int row, int col) {
+            double minY = row * CELL_FIXED;
+            double minX = col * CELL_FIXED * cosLat;
+            double dy = Math.max(0, Math.max(minY - y, y - (minY + CELL_FIXED)));
+            double dx = Math.max(0, Math.max(minX - x, x - (minX + CELL_FIXED * cosLat)));
+            return dx * dx + dy * dy < limitSquared;
+        }
+
+        void scan(Cell cell) {
+            if (cell == null) {
+                return;
+            }
+            int[] ends = cell.ends;
+            for (int edge = 0, at = 0; edge < cell.size; edge++, at += 4) {
+                double ay = ends[at];
+                double ax = ends[at + 1] * cosLat;
+                double by = ends[at + 2];
+                double bx = ends[at + 3] * cosLat;
+                // The edge's box is a cheap lower bound on its distance
+                double boxY = Math.max(0, Math.max(Math.min(ay, by) - y, y - Math.max(ay, by)));
+                double boxX = Math.max(0, Math.max(Math.min(ax, bx) - x, x - Math.max(ax, bx)));
+                if (boxX * boxX + boxY * boxY >= limitSquared) {
+                    continue;
+                }
+                double distanceSquared = GeoUtils.segmentDistanceSquared(x, y, ax, ay, bx, by);
+                if (distanceSquared < limitSquared) {
+                    limitSquared = distanceSquared;
+                    best = cell.ways[edge];
+                }
+            }
+        }
+    }
+
+    /**
+     * Edges of one grid cell with their fixed-point end points packed into one array
+     * (lat, lng, lat, lng per edge), so the lookup loop reads memory sequentially.
+     */
+    private static class Cell {
+        int[] ends = new int[16];
+        OsmWay[] ways = new OsmWay[4];
+        int size;
+
+        void add(OsmWay way, int fromLat, int fromLng, int toLat, int toLng) {
+            if (size == ways.length) {
+                ways = Arrays.copyOf(ways, size * 2);
+                ends = Arrays.copyOf(ends, size * 8);
+            }
+            int at = size * 4;
+            ends[at] = fromLat;
+            ends[at + 1] = fromLng;
+            ends[at + 2] = toLat;
+            ends[at + 3] = toLng;
+            ways[size++] = way;
+        }
+    }
+
+    static class Match {
+        final OsmWay way;
+        final double distanceMeters;
+
+        Match(OsmWay way, double distanceMeters) {
+            this.way = way;
+            this.distanceMeters = distanceMeters;
+        }
+    }
+}
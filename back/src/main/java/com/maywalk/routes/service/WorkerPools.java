@@ -0,0 +1,33 @@
+package com.maywalk.routes.service;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Fixed platform-thread pools shared by all requests of one kind. Once a pool's queue
+ * is full, the submitting thread runs the task itself, which slows callers down
+ * instead of dropping work.
+ */
+final class WorkerPools {
+    private WorkerPools() {
+    }
+
+    /**
+     * A pool of {@code parallelism} threads, or one per CPU when it is not positive.
+     */
+    static ThreadPoolTaskExecutor fixed(int parallelism, String threadNamePrefix) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+        pool.setCorePoolSize(threads);
+        pool.setMaxPoolSize(threads);
+        pool.setQueueCapacity(threads * 16);
+        pool.setKeepAliveSeconds(30);
+        pool.setAllowCoreThreadTimeOut(true);
+        pool.setThreadNamePrefix(threadNamePrefix);
+        pool.setDaemon(true);
+        pool.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.initialize();
+        return pool;
+    }
+}
@@ -0,0 +1,35 @@
+package com.maywalk.routes.store;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.maywalk.routes.model.GeoPoint;
+import com.maywalk.routes.model.Route;
+
+/**
+ * Keeps nothing: routes live only as long as the process.
+ */
+@Component
+@ConditionalOnProperty(name = "maywalk.store.type", havingValue = "memory")
+public class InMemoryRouteStore implements RouteStore {
+
+    @Override
+    public List<Route> load() {
+        return List.of();
+    }
+
+    @Override
+    public void save(Route route) {
+    }
+
+    @Override
+    public void appendPoint(UUID routeId, String segmentId, int index, GeoPoint point) {
+    }
+
+    @Override
+    public void deleteAll() {
+    }
+}
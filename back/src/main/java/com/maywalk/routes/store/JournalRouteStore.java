@@ -0,0 +1,529 @@
+package com.maywalk.routes.store;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import com.maywalk.routes.model.GeoPoint;
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+
+/**
+ * Durable route store: every mutation is appended to a journal by a single
+ * writer thread that drains all queued records, writes them in one go and
+ * fsyncs once per batch (group commit). Every {@code snapshot-every} records
+ * the live state is compacted into a binary snapshot and older journals are
+ * dropped; startup maps the snapshot and replays the journals written after it.
+ *
+ * <p>Journal record: {@code [int length][int crc32][byte type][payload]}.
+ * Snapshot: {@code [int magic][long generation][int count]} followed by
+ * {@code [int length][int crc32][route]} records.
+ */
+@Component
+@ConditionalOnProperty(name = "maywalk.store.type", havingValue = "journal", matchIfMissing = true)
+public class JournalRouteStore implements RouteStore, DisposableBean, MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(JournalRouteStore.class);
+    private static final int SNAPSHOT_MAGIC = 0x4D575331; // "MWS1"
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final byte PUT = 1;
+    private static final byte ADD_POINT = 2;
+    private static final byte CLEAR = 3;
+
+    private final Path dir;
+    private final boolean syncWrites;
+    private final long snapshotEvery;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong sinceSnapshot = new AtomicLong();
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "route-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Object snapshotLock = new Object();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean closing;
+    private volatile Supplier<Collection<Route>> source;
+    private FileChannel journal;
+    private long generation;
+
+    public JournalRouteStore(@Value("${maywalk.store.dir:data}") String dir,
+                             @Value("${maywalk.store.sync-writes:true}") boolean syncWrites,
+                             @Value("${maywalk.store.snapshot-every:50000}") long snapshotEvery,
+                             @Value("${maywalk.store.max-batch:1024}") int maxBatch) throws IOException {
+        this.dir = Paths.get(dir);
+        this.syncWrites = syncWrites;
+        this.snapshotEvery = snapshotEvery;
+        this.maxBatch = maxBatch;
+        Files.createDirectories(this.dir);
+        try (Stream<Path> files = Files.list(this.dir)) {
+            // Left behind by a snapshot that was interrupted before its rename
+            for (Path tmp : (Iterable<Path>) files.filter(JournalRouteStore::isSnapshotTmp)::iterator) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        long last = journalGenerations().stream().mapToLong(Long::longValue).max().orElse(0);
+        generation = Math.max(last, readSnapshotGeneration()) + 1;
+        journal = openJournal(generation);
+        writer = new Thread(this::writeLoop, "route-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public List<Route> load() {
+        long started = System.nanoTime();
+        Map<UUID, Route> state = new LinkedHashMap<>();
+        try {
+            long from = readSnapshot(state);
+            int records = 0;
+            for (long gen : journalGenerations()) {
+                if (gen >= from && gen < generation) {
+                    records += replayJournal(gen, state);
+                }
+            }
+            log.info("Loaded {} routes ({} journal records) in {} ms", state.size(), records,
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load routes from " + dir, e);
+        }
+        return new ArrayList<>(state.values());
+    }
+
+    @Override
+    public void save(Route route) {
+        ByteBuffer record = record(PUT, RouteCodec.encodedSize(route));
+        RouteCodec.encode(route, record);
+        submit(record);
+    }
+
+    /**
+     * Queues one record per route and waits for the last, so the batch goes out in
+     * a single group commit and a bulk import cannot run ahead of the disk.
+     */
+    @Override
+    public void saveAll(Collection<Route> routes) {
+        Pending last = null;
+        for (Route route : routes) {
+            ByteBuffer record = record(PUT, RouteCodec.encodedSize(route));
+            RouteCodec.encode(route, record);
+            last = enqueue(record);
+        }
+        if (last != null) {
+            last.done.join();
+        }
+    }
+
+    @Override
+    public void appendPoint(UUID routeId, String segmentId, int index, GeoPoint point) {
+        ByteBuffer record = record(ADD_POINT, 16 + RouteCodec.stringSize(segmentId) + 4 + 17);
+        RouteCodec.writeUuid(record, routeId);
+        RouteCodec.writeString(record, segmentId);
+        record.putInt(index);
+        record.putDouble(point.getLat());
+        record.putDouble(point.getLng());
+        record.put((byte) (point.isNode() ? 1 : 0));
+        submit(record);
+    }
+
+    @Override
+    public void deleteAll() {
+        submit(record(CLEAR, 0));
+    }
+
+    @Override
+    public void snapshotSource(Supplier<Collection<Route>> routes) {
+        this.source = routes;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("maywalk.store.pending", queue, BlockingQueue::size)
+                .description("Journal records waiting for the writer thread").register(registry);
+        Gauge.builder("maywalk.store.since-snapshot", sinceSnapshot, AtomicLong::get)
+                .description("Journal records written since the last snapshot").register(registry);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        // A background snapshot needs the writer thread for its rotation, so it must finish first
+        closing = true;
+        snapshotter.shutdown();
+        if (!snapshotter.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.warn("Background route snapshot did not finish before shutdown");
+        }
+        running = false;
+        writer.join();
+        if (sinceSnapshot.get() > 0 && source != null) {
+            writeSnapshot();
+        }
+        journal.close();
+        if (Files.size(journalPath(generation)) == 0) {
+            Files.delete(journalPath(generation));
+        }
+    }
+
+    private ByteBuffer record(byte type, int payloadSize) {
+        ByteBuffer record = ByteBuffer.allocate(8 + 1 + payloadSize);
+        record.position(8);
+        record.put(type);
+        return record;
+    }
+
+    /**
+     * Queues a record and, unless async writes were opted into, waits for its group commit,
+     * so a write is acknowledged only once it is on disk and a journal error reaches the caller.
+     */
+    private void submit(ByteBuffer record) {
+        Pending pending = enqueue(record);
+        if (syncWrites) {
+            pending.done.join();
+        }
+    }
+
+    private Pending enqueue(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.position() - 8);
+        record.putInt(0, record.position() - 8);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        Pending pending = new Pending(record);
+        queue.add(pending);
+        return pending;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+            if (sinceSnapshot.get() >= snapshotEvery && source != null && !closing
+                    && snapshotRunning.compareAndSet(false, true)) {
+                scheduleSnapshot();
+            }
+        }
+    }
+
+    private void scheduleSnapshot() {
+        try {
+            snapshotter.submit(() -> {
+                try {
+                    writeSnapshot();
+                } catch (Exception e) {
+                    log.error("Route snapshot failed", e);
+                } finally {
+                    snapshotRunning.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; destroy() writes the final snapshot
+            snapshotRunning.set(false);
+        }
+    }
+
+    private void writeBatch(List<Pending> batch) {
+        int written = 0;
+        try {
+            for (Pending pending : batch) {
+                if (pending.record == null) {
+                    // Rotation marker: seal the current journal and continue in a new one
+                    try {
+                        rotate();
+                    } catch (IOException e) {
+                        log.error("Could not rotate the journal, still writing {}", journalPath(generation), e);
+                        pending.done.completeExceptionally(e);
+                        continue;
+                    }
+                    sinceSnapshot.set(0);
+                    written = 0;
+                    continue;
+                }
+                while (pending.record.hasRemaining()) {
+                    journal.write(pending.record);
+                }
+                written++;
+            }
+            journal.force(false);
+            sinceSnapshot.addAndGet(written);
+            for (Pending pending : batch) {
+                pending.done.complete(generation);
+            }
+        } catch (IOException e) {
+            log.error("Could not write {} journal records", batch.size(), e);
+            for (Pending pending : batch) {
+                pending.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Rotates the journal and compacts the live state into a new snapshot. Serialized, so
+     * the final snapshot of {@link #destroy()} never overlaps a background one.
+     */
+    private void writeSnapshot() throws IOException {
+        synchronized (snapshotLock) {
+            writeSnapshotLocked();
+        }
+    }
+
+    private void writeSnapshotLocked() throws IOException {
+        long snapshotGeneration;
+        if (writer.isAlive()) {
+            Pending rotate = new Pending(null);
+            queue.add(rotate);
+            snapshotGeneration = rotate.done.join();
+        } else {
+            rotate();
+            snapshotGeneration = generation;
+        }
+        long started = System.nanoTime();
+        Path tmp = Files.createTempFile(dir, SNAPSHOT_FILE + ".", ".tmp");
+        int count = 0;
+        try {
+            try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+                 BufferedOutputStream out = new BufferedOutputStream(file, 1 << 20)) {
+                ByteBuffer header = ByteBuffer.allocate(16);
+                header.putInt(SNAPSHOT_MAGIC).putLong(snapshotGeneration).putInt(0);
+                out.write(header.array());
+                for (Route route : source.get()) {
+                    ByteBuffer record = encodeSnapshot(route);
+                    out.write(record.array(), 0, record.limit());
+                    count++;
+                }
+                out.flush();
+                file.getChannel().write(ByteBuffer.allocate(4).putInt(0, count), 12);
+                file.getChannel().force(true);
+            }
+            Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        for (long gen : journalGenerations()) {
+            if (gen < snapshotGeneration) {
+                Files.deleteIfExists(journalPath(gen));
+            }
+        }
+        log.info("Wrote snapshot of {} routes in {} ms", count, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Encodes a published route snapshot; snapshots are never edited, so no copy is needed.
+     */
+    private static ByteBuffer encodeSnapshot(Route route) {
+        ByteBuffer record = ByteBuffer.allocate(8 + RouteCodec.encodedSize(route));
+        record.position(8);
+        RouteCodec.encode(route, record);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.position() - 8);
+        record.putInt(0, record.position() - 8);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private long readSnapshot(Map<UUID, Route> state) throws IOException {
+        Path path = dir.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedReader reader = new MappedReader(channel, 0);
+            if (reader.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a route snapshot: " + path);
+            }
+            long snapshotGeneration = reader.readLong();
+            int count = reader.readInt();
+            for (int i = 0; i < count; i++) {
+                int length = reader.readInt();
+                int crc = reader.readInt();
+                ByteBuffer payload = reader.slice(length);
+                if (crc != crc(payload)) {
+                    throw new IOException("Corrupt route snapshot record " + i + " in " + path);
+                }
+                Route route = RouteCodec.decode(payload);
+                state.put(route.getId(), route);
+            }
+            return snapshotGeneration;
+        }
+    }
+
+    private long readSnapshotGeneration() throws IOException {
+        Path path = dir.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(12);
+            channel.read(header);
+            return header.getInt(0) == SNAPSHOT_MAGIC ? header.getLong(4) : 0;
+        }
+    }
+
+    private int replayJournal(long gen, Map<UUID, Route> state) throws IOException {
+        int records = 0;
+        try (FileChannel channel = FileChannel.open(journalPath(gen), StandardOpenOption.READ)) {
+            MappedReader reader = new MappedReader(channel, 0);
+            while (reader.hasRemaining(8)) {
+                int length = reader.readInt();
+                int crc = reader.readInt();
+                if (length <= 0 || !reader.hasRemaining(length)) {
+                    log.warn("Ignoring truncated tail of {}", journalPath(gen));
+                    break;
+                }
+                ByteBuffer payload = reader.slice(length);
+                if (crc != crc(payload)) {
+                    log.warn("Ignoring corrupt tail of {}", journalPath(gen));
+                    break;
+                }
+                apply(payload, state);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private void apply(ByteBuffer payload, Map<UUID, Route> state) {
+        byte type = payload.get();
+        if (type == PUT) {
+            Route route = RouteCodec.decode(payload);
+            state.put(route.getId(), route);
+        } else if (type == CLEAR) {
+            state.clear();
+        } else if (type == ADD_POINT) {
+            Route route = state.get(RouteCodec.readUuid(payload));
+            String segmentId = RouteCodec.readString(payload);
+            int index = payload.getInt();
+            GeoPoint point = new GeoPoint(payload.getDouble(), payload.getDouble(), payload.get() != 0);
+            if (route == null) {
+                return;
+            }
+            for (RouteSegment segment : route.getSegments()) {
+                if (!segment.getId().equals(segmentId)) {
+                    continue;
+                }
+                int size = segment.getPoints().size();
+                if (size == index) {
+                    segment.getPoints().add(point);
+                } else if (size < index) {
+                    log.warn("Dropping point {} of segment {} of route {}: only {} points precede it",
+                            index, segmentId, route.getId(), size);
+                }
+                // A larger segment comes from a snapshot that already holds points journalled after its rotation
+            }
+        }
+    }
+
+    /**
+     * Switches to the next journal generation. The new file is opened before the current
+     * one is sealed, so a failed open leaves the current journal in use.
+     */
+    private void rotate() throws IOException {
+        FileChannel next = openJournal(generation + 1);
+        try {
+            journal.force(false);
+        } catch (IOException e) {
+            next.close();
+            Files.deleteIfExists(journalPath(generation + 1));
+            throw e;
+        }
+        FileChannel sealed = journal;
+        journal = next;
+        generation++;
+        try {
+            sealed.close();
+        } catch (IOException e) {
+            log.warn("Could not close sealed journal {}", journalPath(generation - 1), e);
+        }
+    }
+
+    private static boolean isSnapshotTmp(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SNAPSHOT_FILE + ".") && name.endsWith(".tmp");
+    }
+
+    private static int crc(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private FileChannel openJournal(long gen) throws IOException {
+        return FileChannel.open(journalPath(gen), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path journalPath(long gen) {
+        return dir.resolve(String.format("journal-%012d.log", gen));
+    }
+
+    private List<Long> journalGenerations() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("journal-") && name.endsWith(".log"))
+                    .map(name -> Long.parseLong(name.substring(8, name.length() - 4)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static final class Pending {
+        final ByteBuffer record;
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        Pending(ByteBuffer record) {
+            this.record = record;
+        }
+    }
+}
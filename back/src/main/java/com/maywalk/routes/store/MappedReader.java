@@ -0,0 +1,62 @@
+package com.maywalk.routes.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads length-prefixed records from a file through a sliding memory-mapped
+ * window, so files larger than one mapping can be replayed without copying.
+ */
+final class MappedReader {
+    private static final long WINDOW = 256L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    MappedReader(FileChannel channel, long position) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.position = position;
+    }
+
+    boolean hasRemaining(int bytes) {
+        return position + bytes <= size;
+    }
+
+    int readInt() throws IOException {
+        int value = window(4).getInt();
+        position += 4;
+        return value;
+    }
+
+    long readLong() throws IOException {
+        long value = window(8).getLong();
+        position += 8;
+        return value;
+    }
+
+    /**
+     * Returns a view of the next {@code length} bytes and advances past them.
+     */
+    ByteBuffer slice(int length) throws IOException {
+        ByteBuffer source = window(length);
+        ByteBuffer slice = source.slice();
+        slice.limit(length);
+        position += length;
+        return slice;
+    }
+
+    private ByteBuffer window(int length) throws IOException {
+        if (window == null || position < windowStart || position + length > windowStart + window.capacity()) {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Math.max(WINDOW, length), size - position));
+        }
+        window.position((int) (position - windowStart));
+        return window;
+    }
+}
@@ -0,0 +1,127 @@
+package com.maywalk.routes.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.maywalk.routes.model.PackedGeometry;
+import com.maywalk.routes.model.Route;
+import com.maywalk.routes.model.RouteSegment;
+import com.maywalk.routes.model.RouteStatus;
+import com.maywalk.routes.model.SurfaceType;
+
+/**
+ * Compact binary encoding of routes shared by the journal and snapshots.
+ * Coordinates are written as raw doubles followed by a node bitset.
+ */
+final class RouteCodec {
+    private RouteCodec() {
+    }
+
+    static int encodedSize(Route route) {
+        int size = 16 + stringSize(route.getName()) + 1 + 12 + 4;
+        for (RouteSegment segment : route.getSegments()) {
+            int points = segment.getGeometry().size();
+            size += stringSize(segment.getId()) + stringSize(segment.getName()) + 2 + 4 + points * 16 + (points + 7) / 8;
+        }
+        return size;
+    }
+
+    static void encode(Route route, ByteBuffer out) {
+        writeUuid(out, route.getId());
+        writeString(out, route.getName());
+        out.put((byte) route.getStatus().ordinal());
+        LocalDateTime updatedAt = route.getUpdatedAt();
+        out.putLong(updatedAt.toEpochSecond(ZoneOffset.UTC));
+        out.putInt(updatedAt.getNano());
+        out.putInt(route.getSegments().size());
+        for (RouteSegment segment : route.getSegments()) {
+            writeString(out, segment.getId());
+            writeString(out, segment.getName());
+            out.put((byte) segment.getSurfaceType().ordinal());
+            out.put((byte) (segment.isPreliminary() ? 1 : 0));
+            PackedGeometry points = segment.getGeometry();
+            out.putInt(points.size());
+            for (int i = 0; i < points.size(); i++) {
+                out.putDouble(points.lat(i));
+                out.putDouble(points.lng(i));
+            }
+            int bits = 0;
+            for (int i = 0; i < points.size(); i++) {
+                if (points.isNode(i)) {
+                    bits |= 1 << (i & 7);
+                }
+                if ((i & 7) == 7 || i == points.size() - 1) {
+                    out.put((byte) bits);
+                    bits = 0;
+                }
+            }
+        }
+    }
+
+    static Route decode(ByteBuffer in) {
+        Route route = new Route();
+        route.setId(readUuid(in));
+        route.setName(readString(in));
+        route.setStatus(RouteStatus.values()[in.get()]);
+        route.setUpdatedAt(LocalDateTime.ofEpochSecond(in.getLong(), in.getInt(), ZoneOffset.UTC));
+        int segmentCount = in.getInt();
+        List<RouteSegment> segments = new ArrayList<>(segmentCount);
+        for (int s = 0; s < segmentCount; s++) {
+            RouteSegment segment = new RouteSegment();
+            segment.setId(readString(in));
+            segment.setName(readString(in));
+            segment.setSurfaceType(SurfaceType.values()[in.get()]);
+            segment.setPreliminary(in.get() != 0);
+            int count = in.getInt();
+            int nodeBits = in.position() + count * 16;
+            PackedGeometry points = new PackedGeometry(count);
+            for (int i = 0; i < count; i++) {
+                boolean node = (in.get(nodeBits + (i >> 3)) & (1 << (i & 7))) != 0;
+                points.append(in.getDouble(), in.getDouble(), node);
+            }
+            in.position(in.position() + (count + 7) / 8);
+            segment.setPoints(points);
+            segments.add(segment);
+        }
+        route.setSegments(segments);
+        return route;
+    }
+
+    static int stringSize(String value) {
+        return 4 + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    static void writeString(ByteBuffer out, String value) {
+        if (value == null) {
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeUuid(ByteBuffer out, UUID id) {
+        out.putLong(id.getMostSignificantBits());
+        out.putLong(id.getLeastSignificantBits());
+    }
+
+    static UUID readUuid(ByteBuffer in) {
+        return new UUID(in.getLong(), in.getLong());
+    }
+}
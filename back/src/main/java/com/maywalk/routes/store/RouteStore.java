@@ -0,0 +1,46 @@
+package com.maywalk.routes.store;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import com.maywalk.routes.model.GeoPoint;
+import com.maywalk.routes.model.Route;
+
+/**
+ * Persistence behind {@code RouteService}. The service keeps serving from
+ * memory and reports every mutation here; {@link #load()} rebuilds that
+ * state at startup.
+ */
+public interface RouteStore {
+
+    /**
+     * Returns the persisted routes; called once at startup before any write.
+     */
+    List<Route> load();
+
+    void save(Route route);
+
+    /**
+     * Persists a batch of routes; returns once the store has accepted all of them.
+     */
+    default void saveAll(Collection<Route> routes) {
+        for (Route route : routes) {
+            save(route);
+        }
+    }
+
+    /**
+     * Records that {@code point} was appended at position {@code index} of the segment.
+     */
+    void appendPoint(UUID routeId, String segmentId, int index, GeoPoint point);
+
+    void deleteAll();
+
+    /**
+     * Registers the live route set the store may compact into a snapshot.
+     */
+    default void snapshotSource(Supplier<Collection<Route>> routes) {
+    }
+}
@@ -20,11 +20,15 @@ const app = Vue.createApp({
       routeName: 'Черновик маршрута',
       status: 'PRELIMINARY',
       snapToArchive: true,
+      snapToEdge: false,
       snapToRoads: false,
       archiveThreshold: 40,
       metrics: null,
       routes: [],
+      routesCursor: null,
+      routeFilter: '',
       selectedRouteId: null,
+      openedRouteId: null,
       loading: false,
       notice: '',
       mode: 'point',
@@ -33,6 +37,7 @@ const app = Vue.createApp({
       coverageMode: 'none',
 
       isDrawing: false,
+      strokeStart: 0,
       skipNextClick: false,
       freeDrawMinDistance: 8,
 
@@ -58,6 +63,9 @@ const app = Vue.createApp({
     status(newStatus) {
       this.handleStatusChange(newStatus);
     },
+    showOldRoutes() {
+      this.updateArchiveLayer();
+    },
   },
   methods: {
     createTileLayer(key) {
@@ -100,9 +108,21 @@ const app = Vue.createApp({
       this.baseLayer = this.createTileLayer(tile).addTo(this.map);
     },
 
-    async loadRoutes() {
-      const response = await api.get('/routes');
-      this.routes = response.data;
+    async loadRoutes(more = false) {
+      const params = { limit: 50 };
+      if (this.routeFilter.trim()) {
+        params.name = this.routeFilter.trim();
+      }
+      if (more && this.routesCursor) {
+        params.cursor = this.routesCursor;
+      }
+      const response = await api.get('/routes/summaries', { params });
+      this.routesCursor = response.data.nextCursor;
+      if (more) {
+        this.routes = this.routes.concat(response.data.items);
+        return;
+      }
+      this.routes = response.data.items;
       if (this.routes.length && (!this.selectedRouteId || !this.routes.find(r => r.id === this.selectedRouteId))) {
         this.selectedRouteId = this.routes[0].id;
       }
@@ -111,6 +131,23 @@ const app = Vue.createApp({
       }
     },
 
+    updateArchiveLayer() {
+      if (!this.showOldRoutes) {
+        if (this.archiveLayer) this.map.removeLayer(this.archiveLayer);
+        return;
+      }
+      if (!this.archiveLayer) {
+        // Vector tiles keep drawing cost bounded by the viewport, not by the archive size
+        this.archiveLayer = L.vectorGrid.protobuf(`${api.defaults.baseURL}/tiles/{z}/{x}/{y}.mvt`, {
+          vectorTileLayerStyles: {
+            routes: props => ({ color: props.preliminary ? '#ffcc80' : '#9e9e9e', weight: 3, opacity: 0.7 }),
+          },
+          interactive: false,
+        });
+      }
+      this.archiveLayer.addTo(this.map);
+    },
+
     resetSegment() {
       this.currentSegment = {
         name: 'Участок ' + (this.segments.length + 1),
@@ -187,11 +224,11 @@ const app = Vue.createApp({
       this.addPointToCurrent(e.latlng);
     },
 
-    async addPointToCurrent(latlng) {
+    async addPointToCurrent(latlng, snap = this.snapToArchive) {
       if (!this.allowAddPoints) return;
 
       let chosenPoint = latlng;
-      if (this.snapToArchive) {
+      if (snap) {
         const candidate = await this.searchNearest(latlng);
         if (candidate) {
           this.notice = `Привязали к архивному маршруту: ${candidate.routeName}`;
@@ -209,7 +246,9 @@ const app = Vue.createApp({
       if (!this.allowAddPoints || this.mode !== 'free') return;
       this.isDrawing = true;
       this.skipNextClick = true;
-      await this.addPointToCurrent(e.latlng);
+      this.strokeStart = this.currentSegment.points.length;
+      // Штрих привязывается к архиву целиком, когда кнопку мыши отпустят
+      await this.addPointToCurrent(e.latlng, false);
     },
 
     async handleMouseMove(e) {
@@ -222,17 +261,53 @@ const app = Vue.createApp({
           return;
         }
       }
-      await this.addPointToCurrent(latlng);
+      await this.addPointToCurrent(latlng, false);
     },
 
-    handleMouseUp() {
-      if (this.mode !== 'free') return;
+    async handleMouseUp() {
+      if (this.mode !== 'free' || !this.isDrawing) return;
       this.isDrawing = false;
+      if (this.snapToArchive) {
+        await this.snapPoints(this.strokeStart);
+      }
+    },
+
+    snapSegment() {
+      return this.snapPoints(0);
+    },
+
+    async snapPoints(from) {
+      const points = this.currentSegment.points.slice(from);
+      if (!points.length) return;
+      try {
+        const payload = {
+          points,
+          thresholdMeters: this.archiveThreshold,
+          excludeRouteId: this.openedRouteId,
+          snapToEdge: this.snapToEdge,
+        };
+        const response = await api.post('/routes/snap', payload);
+        if (!response.data.snapped) return;
+        this.currentSegment.points.splice(from, points.length, ...response.data.points);
+        this.activePolyline.setLatLngs(this.currentSegment.points.map(p => [p.lat, p.lng]));
+        this.redrawActiveMarkers();
+        this.updateMetricsDraft();
+        this.pushHistory();
+        this.notice = `Привязали к архиву точек: ${response.data.snapped} из ${points.length}`;
+      } catch (e) {
+        this.notice = 'Не удалось привязать участок к архиву';
+      }
     },
 
     async searchNearest(latlng) {
       try {
-        const payload = { lat: latlng.lat, lng: latlng.lng, thresholdMeters: this.archiveThreshold };
+        const payload = {
+          lat: latlng.lat,
+          lng: latlng.lng,
+          thresholdMeters: this.archiveThreshold,
+          excludeRouteId: this.openedRouteId,
+          snapToEdge: this.snapToEdge,
+        };
         const response = await api.post('/routes/nearest', payload);
         return response.data;
       } catch (e) {
@@ -273,6 +348,7 @@ const app = Vue.createApp({
       this.routeName = 'Черновик маршрута';
       this.clearRenderedSegments();
       this.status = 'PRELIMINARY';
+      this.openedRouteId = null;
       this.restoring = false;
       this.allowAddPoints = true;
       this.setMode('point');
@@ -301,6 +377,7 @@ const app = Vue.createApp({
         this.metrics = response.data.metrics;
         this.selectedRouteId = response.data.route.id;
         await this.loadRoutes();
+        if (this.archiveLayer) this.archiveLayer.redraw();
         this.clearRoute('Маршрут сохранен');
       } catch (e) {
         this.notice = 'Не удалось сохранить маршрут';
@@ -318,6 +395,7 @@ const app = Vue.createApp({
       this.restoring = true;
       const response = await api.get(`/routes/${this.selectedRouteId}`);
       const loaded = response.data.route;
+      this.openedRouteId = loaded.id;
       this.routeName = loaded.name;
       this.status = loaded.status;
       this.segments = loaded.segments;
@@ -0,0 +1,94 @@
+package com.maywalk.routes.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the error bounds documented on the fast distance kernels against haversine,
+ * on random walk-scale pairs with a fixed seed.
+ */
+class GeoUtilsTest {
+    private static final int SAMPLES = 200_000;
+
+    @Test
+    void fastDistanceWithinOneKilometer() {
+        assertFastDistance(70, 1_000, 1e-8);
+    }
+
+    @Test
+    void fastDistanceWithinTenKilometers() {
+        assertFastDistance(70, 10_000, 1e-6);
+    }
+
+    @Test
+    void fastDistanceNearThePoles() {
+        assertFastDistance(80, 50_000, 1e-4);
+    }
+
+    @Test
+    void projectedDistanceWithinOneKilometer() {
+        assertProjectedDistance(80, 1_000, 2e-4);
+    }
+
+    @Test
+    void projectedDistanceWithinHundredMeters() {
+        assertProjectedDistance(80, 100, 2e-5);
+    }
+
+    @Test
+    void segmentDistanceProjectsOntoTheSegment() {
+        // (1, 1) lies above the middle of a-b and past its end for b-c
+        assertEquals(1, GeoUtils.segmentDistanceSquared(1, 1, 0, 0, 2, 0), 1e-12);
+        assertEquals(2, GeoUtils.segmentDistanceSquared(1, 1, 2, 0, 3, 0), 1e-12);
+        assertEquals(0, GeoUtils.segmentDistanceSquared(1.5, 0, 0, 0, 2, 0), 1e-12);
+        assertEquals(5, GeoUtils.segmentDistanceSquared(1, 2, 0, 0, 0, 0), 1e-12);
+    }
+
+    private static void assertFastDistance(double maxLat, double maxMeters, double bound) {
+        Random random = new Random(42);
+        double worst = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            double[] pair = pair(random, maxLat, maxMeters);
+            double exact = GeoUtils.distanceMeters(pair[0], pair[1], pair[2], pair[3]);
+            double fast = GeoUtils.fastDistanceMeters(pair[0], pair[1], pair[2], pair[3]);
+            worst = Math.max(worst, Math.abs(fast - exact) / exact);
+        }
+        assertTrue(worst < bound, "relative error " + worst + " up to " + maxMeters + " m at ±" + maxLat + "°");
+    }
+
+    /**
+     * The radius searches project with {@code cos} of the query latitude; a segment
+     * collapsed to its far end measures the query-to-point distance that way.
+     */
+    private static void assertProjectedDistance(double maxLat, double maxMeters, double bound) {
+        Random random = new Random(7);
+        double worst = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            double[] pair = pair(random, maxLat, maxMeters);
+            double exact = GeoUtils.distanceMeters(pair[0], pair[1], pair[2], pair[3]);
+            double cosLat = Math.cos(Math.toRadians(pair[0]));
+            double projected = Math.sqrt(GeoUtils.segmentDistanceSquared(pair[1] * cosLat, pair[0],
+                    pair[3] * cosLat, pair[2], pair[3] * cosLat, pair[2])) * GeoUtils.METERS_PER_DEGREE;
+            worst = Math.max(worst, Math.abs(projected - exact) / exact);
+        }
+        assertTrue(worst < bound, "relative error " + worst + " up to " + maxMeters + " m at ±" + maxLat + "°");
+    }
+
+    /**
+     * A random point within ±{@code maxLat} and a second one 0.1 m to {@code maxMeters}
+     * away in a random direction, as {@code lat1, lng1, lat2, lng2}.
+     */
+    private static double[] pair(Random random, double maxLat, double maxMeters) {
+        double lat = (random.nextDouble() * 2 - 1) * maxLat;
+        double lng = (random.nextDouble() * 2 - 1) * 179;
+        double meters = 0.1 + random.nextDouble() * (maxMeters - 0.1);
+        double heading = random.nextDouble() * 2 * Math.PI;
+        double lat2 = lat + Math.sin(heading) * meters / GeoUtils.METERS_PER_DEGREE;
+        double lng2 = lng + Math.cos(heading) * meters / GeoUtils.METERS_PER_DEGREE / Math.cos(Math.toRadians(lat));
+        return new double[] {lat, lng, lat2, lng2};
+    }
+}